@@ -0,0 +1,60 @@
+#!/bin/bash
+# Compare the disk footprint and add/checkout latency of blob storage at
+# different compression levels.
+#
+# Usage: benchmarks/compression.sh [CORPUS_DIR] [LEVEL...]
+#
+# CORPUS_DIR defaults to a generated text-heavy corpus (source-like text,
+# a log file and an incompressible binary); LEVELs default to 0 1 6 9.
+# Run `make` in proj2 first: the gitlet classes are taken from proj2.
+
+set -e
+PROJ=$(cd "$(dirname "$0")/.." && pwd)
+GITLET="java -cp $PROJ gitlet.Main"
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+
+CORPUS=$1
+shift || true
+LEVELS=${*:-0 1 6 9}
+
+if [ -z "$CORPUS" ]; then
+    CORPUS=$WORK/corpus
+    mkdir -p "$CORPUS"
+    for i in $(seq 1 20); do
+        for j in $(seq 1 1000); do
+            echo "    public static int method$j(int x$i) { return x$i * $j + $((i * j % 97)); }"
+        done > "$CORPUS/Source$i.java"
+    done
+    for i in $(seq 1 50000); do
+        echo "2021-06-$((i % 28 + 10)) 12:$((i % 60)):00 INFO request $i served in $((i % 913)) ms"
+    done > "$CORPUS/server.log"
+    head -c 4000000 /dev/urandom > "$CORPUS/random.bin"
+fi
+
+now() {
+    date +%s%N
+}
+
+printf "%-6s %12s %12s %10s %12s\n" level corpus_KiB blobs_KiB add_ms checkout_ms
+for level in $LEVELS; do
+    repo=$WORK/repo-$level
+    mkdir -p "$repo"
+    cp "$CORPUS"/* "$repo"
+    cd "$repo"
+    $GITLET init
+    start=$(now)
+    for f in *; do
+        GITLET_COMPRESSION=$level $GITLET add "$f"
+    done
+    add=$((($(now) - start) / 1000000))
+    GITLET_COMPRESSION=$level $GITLET commit "corpus"
+    rm -- *
+    start=$(now)
+    $GITLET reset "$($GITLET find corpus)"
+    checkout=$((($(now) - start) / 1000000))
+    printf "%-6s %12s %12s %10s %12s\n" "$level" \
+        "$(du -sk --apparent-size "$CORPUS" | cut -f1)" \
+        "$(du -sk --apparent-size .gitlet/blobs | cut -f1)" "$add" "$checkout"
+    cd "$WORK"
+done
@@ -0,0 +1,18 @@
+#!/bin/bash
+# Run the JMH benchmarks in a scratch directory, since they generate their
+# repositories in the working directory.
+#
+# Usage: benchmarks/jmh.sh [JMH_OPTION...]
+#
+# Build the benchmarks first: mvn install in proj2, then mvn package in
+# proj2/benchmarks. JMH_OPTIONs are passed on, e.g. `ObjectBenchmarks.sha1`
+# to pick benchmarks, `-p files=10000` to change a parameter, or
+# `-rf json -rff "$PWD/baseline.json"` to save the results (relative paths
+# would land in the scratch directory, which is deleted afterwards).
+
+set -e
+JAR=$(cd "$(dirname "$0")" && pwd)/target/benchmarks.jar
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK"
+GITLET_AUTO_GC=0 GITLET_DAEMON=0 java -jar "$JAR" "$@"
@@ -0,0 +1,26 @@
+#!/bin/bash
+# Grow a synthetic repository and report how status, log, global-log,
+# checkout and merge scale with it (see gitlet.ScaleHarness).
+#
+# Usage: benchmarks/scale.sh [--files N] [--commits M] [--branches B]
+#        [--steps K] [--seed S] [--warm] [--json] [--out FILE]
+#
+# Build the benchmarks first (see jmh.sh). The report goes to FILE, or to
+# standard output; relative FILEs are taken from the current directory.
+
+set -e
+JAR=$(cd "$(dirname "$0")" && pwd)/target/benchmarks.jar
+args=()
+while [ $# -gt 0 ]; do
+    if [ "$1" = --out ]; then
+        args+=(--out "$(cd "$(dirname "$2")" && pwd)/$(basename "$2")")
+        shift 2
+    else
+        args+=("$1")
+        shift
+    fi
+done
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK"
+GITLET_AUTO_GC=0 GITLET_DAEMON=0 java -cp "$JAR" gitlet.ScaleHarness "${args[@]}"
@@ -0,0 +1,85 @@
+package gitlet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the parts of commands that walk the working directory or
+ * the history, in a synthetic repository (see SyntheticRepo) where the
+ * branches master and other have each made BRANCHDEPTH commits since
+ * they split, on disjoint files.
+ * @author CuiYuxin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmarks {
+    /** The number of files in the repository. */
+    @Param({"100", "1000"})
+    public int files;
+    /** The size of each file. */
+    @Param({"4096"})
+    public int fileSize;
+    /** The number of commits on master before the branches split. */
+    @Param({"20", "200"})
+    public int depth;
+    /** The number of commits on each branch since they split. */
+    @Param({"10"})
+    public int branchDepth;
+
+    /** The head of master. */
+    private String master;
+    /** The head of other. */
+    private String other;
+
+    /** Puts master back at its head before each merge. */
+    @State(Scope.Thread)
+    public static class Unmerged {
+        /** Undo the previous merge. */
+        @Setup(Level.Invocation)
+        public void reset(CommandBenchmarks repo) {
+            SyntheticRepo.reset(repo.master);
+        }
+    }
+
+    /** Generate the repository. */
+    @Setup
+    public void setUp() {
+        new SyntheticRepo(files, fileSize, depth, 61).diverge("other", branchDepth);
+        master = SyntheticRepo.head("master");
+        other = SyntheticRepo.head("other");
+    }
+
+    /** Find the files changed but not staged, as status does. */
+    @Benchmark
+    public String[] unstagedFiles() {
+        return new Stage().getUnstagedFiles(master, WorkTree.scan(Repository.CWD));
+    }
+
+    /** Find the latest common ancestor of the branches. */
+    @Benchmark
+    public String findSplitPoint() {
+        return new Repository().findSplitPoint(master, other);
+    }
+
+    /** Merge other into master. */
+    @Benchmark
+    public void merge(Unmerged unmerged) {
+        new Repository().merge("other");
+    }
+}
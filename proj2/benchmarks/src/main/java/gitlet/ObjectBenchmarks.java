@@ -0,0 +1,138 @@
+package gitlet;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of reading and writing single objects in a synthetic
+ * repository (see SyntheticRepo): hashing, both commit encodings, and
+ * blob and commit storage. The blob is one file of the repository, and
+ * the commit is the head of master, which lists every file. The cold
+ * variants empty the object caches first, as a fresh process would find
+ * them.
+ * @author CuiYuxin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectBenchmarks {
+    /** The number of files in the repository. */
+    @Param({"100", "1000"})
+    public int files;
+    /** The size of each file. */
+    @Param({"4096", "262144"})
+    public int fileSize;
+    /** The number of commits on master. */
+    @Param({"20"})
+    public int depth;
+
+    /** The head of master. */
+    private Commit commit;
+    /** The ID of the head of master. */
+    private String commitID;
+    /** The ID of the blob. */
+    private String blobID;
+    /** The contents of the blob. */
+    private byte[] contents;
+    /** The head of master in Java serialization. */
+    private byte[] serialized;
+    /** The head of master in the Codec encoding. */
+    private byte[] encoded;
+
+    /** Generate the repository. */
+    @Setup
+    public void setUp() {
+        new SyntheticRepo(files, fileSize, depth, 61);
+        commitID = SyntheticRepo.head("master");
+        commit = Commit.read(commitID);
+        blobID = commit.getBlobs().get(SyntheticRepo.name(0));
+        contents = Blob.getBlob(blobID);
+        serialized = Utils.serialize(commit);
+        encoded = commit.encode();
+    }
+
+    /** Hash the contents of a file. */
+    @Benchmark
+    public String sha1() {
+        return Utils.sha1(contents);
+    }
+
+    /** Serialize a commit with Java serialization. */
+    @Benchmark
+    public byte[] serialize() {
+        return Utils.serialize(commit);
+    }
+
+    /** Read a commit back from Java serialization. */
+    @Benchmark
+    public Commit readObject() {
+        return Utils.deserialize(serialized, Commit.class);
+    }
+
+    /** Encode a commit with Codec. */
+    @Benchmark
+    public byte[] encode() {
+        return commit.encode();
+    }
+
+    /** Decode a commit from Codec. */
+    @Benchmark
+    public Commit decode() {
+        return Commit.decode(encoded);
+    }
+
+    /** Hash, compress and store a file's contents again. */
+    @Benchmark
+    public String blobWrite() {
+        return Blob.write(contents, true);
+    }
+
+    /** Read a blob, found in the cache. */
+    @Benchmark
+    public byte[] getBlob() {
+        return Blob.getBlob(blobID);
+    }
+
+    /** Read a blob from its pack. */
+    @Benchmark
+    public byte[] getBlobCold() {
+        Blob.CACHE.clear();
+        return Blob.getBlob(blobID);
+    }
+
+    /** Read a commit, found in the cache. */
+    @Benchmark
+    public Commit commitRead() {
+        return Commit.read(commitID);
+    }
+
+    /** Read and decode a commit from its pack. */
+    @Benchmark
+    public Commit commitReadCold() {
+        Commit.CACHE.clear();
+        return Commit.read(commitID);
+    }
+
+    /** Read the files of a commit, reading its tree from its pack. */
+    @Benchmark
+    public int commitFilesCold() {
+        Commit.CACHE.clear();
+        Tree.CACHE.clear();
+        Tree.FILES.clear();
+        return Commit.read(commitID).getBlobs().size();
+    }
+}
@@ -0,0 +1,360 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Grows a repository in the working directory through the real commands,
+ * as Main runs them, and measures status, log, global-log, checkout and
+ * merge as it grows. The repository is grown in STEPS equal steps up to
+ * FILES files and COMMITS commits spread over BRANCHES branches. Each
+ * commit edits a few files, mostly among the files its branch owns, and
+ * sometimes adds new ones; every tenth commit merges another branch in.
+ * After each step every measured command is run once on master, with the
+ * object caches emptied first unless --warm is given, and its wall time,
+ * the bytes allocated by live threads and the I/O counters of
+ * /proc/self/io (on Linux) are reported, one record per command, as CSV
+ * or JSON.
+ *
+ * Usage: java gitlet.ScaleHarness [--files N] [--commits M]
+ *        [--branches B] [--steps K] [--seed S] [--warm] [--json]
+ *        [--out FILE]
+ * @author CuiYuxin
+ */
+public class ScaleHarness {
+    /** The I/O counters reported, as named in /proc/self/io. */
+    private static final String[] IO_FIELDS = {"syscr", "syscw", "rchar", "wchar"};
+    /** The commands measured after each step, in order. */
+    private static final String[] MEASURED = {"status", "log", "global-log", "checkout", "merge"};
+    /** Where command output goes. */
+    private static final PrintStream DISCARD = new PrintStream(OutputStream.nullOutputStream());
+
+    /** The total number of files. */
+    private int files = 1000;
+    /** The total number of commits. */
+    private int commits = 200;
+    /** The number of branches, master included. */
+    private int branches = 4;
+    /** The number of steps. */
+    private int steps = 5;
+    /** The seed of the edits. */
+    private long seed = 61;
+    /** Whether caches are kept across commands. */
+    private boolean warm;
+    /** Whether to report JSON rather than CSV. */
+    private boolean json;
+    /** The report file, or null for System.out. */
+    private File out;
+
+    /** The source of the edits. */
+    private Random random;
+    /** The number of files created so far. */
+    private int created;
+    /** The number of commits made so far, the initial commit aside. */
+    private int made;
+    /** The number of commits made on each branch since it last merged. */
+    private final Map<String, Integer> pending = new HashMap<>();
+    /** The measurements, one per command run. */
+    private final List<Map<String, Object>> records = new ArrayList<>();
+
+    /**
+     * Run the harness with the options in ARGS.
+     * @author CuiYuxin
+     */
+    public static void main(String[] args) throws IOException {
+        ScaleHarness harness = new ScaleHarness();
+        for (int i = 0; i < args.length; i += 1) {
+            switch (args[i]) {
+                case "--files":
+                    harness.files = Integer.parseInt(args[++i]);
+                    break;
+                case "--commits":
+                    harness.commits = Integer.parseInt(args[++i]);
+                    break;
+                case "--branches":
+                    harness.branches = Integer.parseInt(args[++i]);
+                    break;
+                case "--steps":
+                    harness.steps = Integer.parseInt(args[++i]);
+                    break;
+                case "--seed":
+                    harness.seed = Long.parseLong(args[++i]);
+                    break;
+                case "--warm":
+                    harness.warm = true;
+                    break;
+                case "--json":
+                    harness.json = true;
+                    break;
+                case "--out":
+                    harness.out = new File(args[++i]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+        if (harness.branches < 2 || harness.steps < 1) {
+            throw new IllegalArgumentException("Need at least 2 branches and 1 step.");
+        }
+        harness.run();
+    }
+
+    /** Grow the repository step by step, measuring after each step, and
+     *  write the report. */
+    private void run() throws IOException {
+        File[] entries = Repository.CWD.listFiles();
+        if (entries != null && entries.length > 0) {
+            throw new IllegalStateException("Run the harness in an empty directory, not "
+                    + Repository.CWD);
+        }
+        random = new Random(seed);
+        command("init");
+        for (int b = 1; b < branches; b += 1) {
+            command("branch", branch(b));
+            pending.put(branch(b), 0);
+        }
+        for (int step = 1; step <= steps; step += 1) {
+            grow(files * step / steps, commits * step / steps);
+            command("checkout", "master");
+            for (String name : MEASURED) {
+                measure(step, name);
+            }
+            System.err.printf("step %d/%d: %d files, %d commits%n", step, steps, created, made);
+        }
+        String report = json ? toJson() : toCsv();
+        if (out == null) {
+            System.out.print(report);
+        } else {
+            Files.writeString(out.toPath(), report);
+        }
+    }
+
+    /** Make commits until there are COMMITSWANTED of them, creating files
+     *  along the way until there are FILESWANTED. */
+    private void grow(int filesWanted, int commitsWanted) {
+        int left = commitsWanted - made;
+        for (; made < commitsWanted; made += 1, left -= 1) {
+            int b = random.nextInt(branches);
+            command("checkout", branch(b));
+            if (made % 10 == 9) {
+                int other = (b + 1 + random.nextInt(branches - 1)) % branches;
+                if (pending.getOrDefault(branch(other), 1) > 0) {
+                    command("merge", branch(other));
+                    pending.put(branch(other), 0);
+                    continue;
+                }
+            }
+            List<String> paths = new ArrayList<>();
+            int newFiles = (filesWanted - created) / left + (created == 0 ? 1 : 0);
+            for (int i = 0; i < newFiles; i += 1) {
+                paths.add(create());
+            }
+            int edits = created == 0 ? 0 : 1 + random.nextInt(Math.max(1, created / 100));
+            for (int i = 0; i < edits; i += 1) {
+                String path = edit(b);
+                if (path != null) {
+                    paths.add(path);
+                }
+            }
+            if (paths.isEmpty()) {
+                paths.add(create());
+            }
+            List<String> args = new ArrayList<>();
+            args.add("add");
+            args.addAll(paths);
+            command(args.toArray(new String[0]));
+            command("commit", "commit " + made + " on " + branch(b));
+            pending.merge(branch(b), 1, Integer::sum);
+        }
+        command("checkout", "master");
+    }
+
+    /** Create a new file and return its name. */
+    private String create() {
+        String name = String.format("file%06d.txt", created);
+        created += 1;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0, n = 20 + random.nextInt(200); i < n; i += 1) {
+            sb.append(line()).append('\n');
+        }
+        Utils.writeContents(new File(name), sb.toString());
+        return name;
+    }
+
+    /** Change a line of one of the files on branch B, mostly one of the
+     *  files it owns, and return its name, or null if there is none. */
+    private String edit(int b) {
+        int i = random.nextInt(created);
+        if (random.nextInt(10) < 8) {
+            i -= i % branches;
+            i += b;
+        }
+        File file = new File(String.format("file%06d.txt", i));
+        if (!file.exists()) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>(List.of(
+                Utils.readContentsAsString(file).split("\n", -1)));
+        lines.set(random.nextInt(lines.size()), line());
+        Utils.writeContents(file, String.join("\n", lines));
+        return file.getName();
+    }
+
+    /** Return a line of source-like text. */
+    private String line() {
+        int x = random.nextInt(1000);
+        return "    int value" + x + " = compute(" + random.nextInt(100000) + ", value"
+                + (x + 1) + ");";
+    }
+
+    /** Return the name of branch B. */
+    private static String branch(int b) {
+        return b == 0 ? "master" : "branch" + b;
+    }
+
+    /** Measure the command NAME after step STEP. */
+    private void measure(int step, String name) {
+        String[] args;
+        switch (name) {
+            case "checkout":
+                args = new String[] {"checkout", branch(1)};
+                break;
+            case "merge":
+                args = new String[] {"merge", mostPending()};
+                break;
+            default:
+                args = new String[] {name};
+        }
+        Blob.STORE.refresh();
+        Commit.STORE.refresh();
+        Tree.STORE.refresh();
+        if (!warm) {
+            Blob.CACHE.clear();
+            Commit.CACHE.clear();
+            Tree.CACHE.clear();
+            Tree.FILES.clear();
+        }
+        Map<String, Long> ioBefore = io();
+        long allocBefore = allocatedBytes();
+        long start = System.nanoTime();
+        command(args);
+        long nanos = System.nanoTime() - start;
+        long allocated = allocatedBytes() - allocBefore;
+        Map<String, Long> ioAfter = io();
+        if (name.equals("checkout")) {
+            command("checkout", "master");
+        } else if (name.equals("merge")) {
+            pending.put(args[1], 0);
+        }
+
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("step", step);
+        record.put("files", created);
+        record.put("commits", made);
+        record.put("branches", branches);
+        record.put("command", name);
+        record.put("wall_ms", String.format("%.3f", nanos / 1e6));
+        record.put("alloc_bytes", allocated);
+        for (String field : IO_FIELDS) {
+            Long before = ioBefore.get(field);
+            Long after = ioAfter.get(field);
+            record.put(field, before == null || after == null ? -1 : after - before);
+        }
+        records.add(record);
+    }
+
+    /** Return the branch other than master with the most commits not yet
+     *  merged anywhere. */
+    private String mostPending() {
+        String best = branch(1);
+        for (int b = 2; b < branches; b += 1) {
+            if (pending.get(branch(b)) > pending.get(best)) {
+                best = branch(b);
+            }
+        }
+        return best;
+    }
+
+    /** Run the command ARGS as the daemon does, discarding its output. */
+    private static void command(String... args) {
+        PrintStream stdout = System.out;
+        System.setOut(DISCARD);
+        try {
+            Main.run(args);
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    /** Return the bytes allocated so far by the live threads. */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(bytes, 0);
+        }
+        return total;
+    }
+
+    /** Return the counters of /proc/self/io, or none where there is no
+     *  such file. */
+    private static Map<String, Long> io() {
+        Map<String, Long> counters = new HashMap<>();
+        File proc = new File("/proc/self/io");
+        if (!proc.canRead()) {
+            return counters;
+        }
+        try {
+            for (String line : Files.readAllLines(proc.toPath(), StandardCharsets.US_ASCII)) {
+                int colon = line.indexOf(':');
+                counters.put(line.substring(0, colon), Long.parseLong(line.substring(colon + 1).trim()));
+            }
+        } catch (IOException | RuntimeException e) {
+            counters.clear();
+        }
+        return counters;
+    }
+
+    /** Return the records as CSV. */
+    private String toCsv() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.join(",", records.get(0).keySet())).append('\n');
+        for (Map<String, Object> record : records) {
+            List<String> values = new ArrayList<>();
+            for (Object value : record.values()) {
+                values.add(value.toString());
+            }
+            sb.append(String.join(",", values)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Return the records as a JSON array of objects. */
+    private String toJson() {
+        StringBuilder sb = new StringBuilder("[\n");
+        for (int i = 0; i < records.size(); i += 1) {
+            List<String> fields = new ArrayList<>();
+            for (Map.Entry<String, Object> e : records.get(i).entrySet()) {
+                Object value = e.getValue();
+                String json = value instanceof String && !e.getKey().equals("wall_ms")
+                        ? "\"" + value + "\"" : value.toString();
+                fields.add("\"" + e.getKey() + "\": " + json);
+            }
+            sb.append("  {").append(String.join(", ", fields)).append('}');
+            sb.append(i + 1 < records.size() ? ",\n" : "\n");
+        }
+        return sb.append("]\n").toString();
+    }
+}
@@ -0,0 +1,184 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates a synthetic repository in the working directory, where gitlet
+ * keeps its repository: FILES text files of about FILESIZE bytes each, and
+ * a history of DEPTH commits on master, each changing one line in 1% of
+ * the files. The same arguments always generate the same contents. Since
+ * the generator wipes the working directory first, it refuses to run in a
+ * directory holding anything other than an earlier synthetic repository.
+ * @author CuiYuxin
+ */
+class SyntheticRepo {
+    /** Marks a working directory as holding a synthetic repository. */
+    private static final File MARKER = Utils.join(Repository.GITLET_DIR, "synthetic");
+
+    /** The number of files. */
+    private final int files;
+    /** The size of each file. */
+    private final int fileSize;
+    /** The source of the contents. */
+    private final Random random;
+    /** The contents of each file, as lines. */
+    private final List<List<String>> contents = new ArrayList<>();
+
+    /**
+     * Generate a repository of FILES files of FILESIZE bytes with a history
+     * of DEPTH commits, from SEED.
+     * @author CuiYuxin
+     */
+    SyntheticRepo(int files, int fileSize, int depth, long seed) {
+        this.files = files;
+        this.fileSize = fileSize;
+        this.random = new Random(seed);
+        wipe();
+        quietly(() -> {
+            new Repository().initGitlet();
+            Utils.writeContents(MARKER, "");
+            List<String> names = new ArrayList<>();
+            for (int i = 0; i < files; i += 1) {
+                contents.add(lines(fileSize));
+                names.add(name(i));
+                save(i);
+            }
+            new Repository().add(names.toArray(new String[0]));
+            new Repository().commit("initial files");
+            for (int d = 1; d < depth; d += 1) {
+                change(Math.max(1, files / 100), 0, files);
+                new Repository().commit("commit " + d);
+            }
+            new Repository().repack();
+        });
+    }
+
+    /** Return the name of file I. */
+    static String name(int i) {
+        return String.format("file%06d.txt", i);
+    }
+
+    /**
+     * Return the ID of the head of BRANCH.
+     * @author CuiYuxin
+     */
+    static String head(String branch) {
+        return Branch.read(branch).getLatestCommit();
+    }
+
+    /**
+     * Create the branch OTHER at the head of master, then make COMMITS
+     * commits on each of master and OTHER, changing files in the first
+     * half on master and in the second half on OTHER, so that merging
+     * OTHER into master has no conflicts. Leaves master checked out.
+     * @author CuiYuxin
+     */
+    void diverge(String other, int commits) {
+        quietly(() -> {
+            new Repository().createBranch(other);
+            for (int c = 0; c < commits; c += 1) {
+                change(Math.max(1, files / 100), 0, files / 2);
+                new Repository().commit("master " + c);
+            }
+            new Repository().checkout(other);
+            for (int c = 0; c < commits; c += 1) {
+                change(Math.max(1, files / 100), files / 2, files);
+                new Repository().commit(other + " " + c);
+            }
+            new Repository().checkout("master");
+        });
+    }
+
+    /**
+     * Make the working directory, the stage and master match commit ID,
+     * undoing the commits made after it.
+     * @author CuiYuxin
+     */
+    static void reset(String id) {
+        Repository repo = new Repository();
+        repo.reset(id);
+        Branch master = Branch.read("master");
+        master.update(id);
+        master.write();
+    }
+
+    /** Change one line in each of N random files among FROM .. TO - 1,
+     *  and stage them. */
+    private void change(int n, int from, int to) {
+        List<String> changed = new ArrayList<>();
+        for (int k = 0; k < n; k += 1) {
+            int i = from + random.nextInt(to - from);
+            List<String> lines = contents.get(i);
+            lines.set(random.nextInt(lines.size()), line());
+            save(i);
+            changed.add(name(i));
+        }
+        new Repository().add(changed.toArray(new String[0]));
+    }
+
+    /** Write file I. */
+    private void save(int i) {
+        Utils.writeContents(new File(name(i)), String.join("\n", contents.get(i)) + "\n");
+    }
+
+    /** Return lines of text adding up to about SIZE bytes. */
+    private List<String> lines(int size) {
+        List<String> lines = new ArrayList<>();
+        for (int n = 0; n < size; ) {
+            String line = line();
+            lines.add(line);
+            n += line.length() + 1;
+        }
+        return lines;
+    }
+
+    /** Return a line of source-like text. */
+    private String line() {
+        int x = random.nextInt(1000);
+        return "    int value" + x + " = compute(" + random.nextInt(100000) + ", value"
+                + (x + 1) + ");";
+    }
+
+    /** Empty the working directory, which must be empty or hold an
+     *  earlier synthetic repository. */
+    private static void wipe() {
+        File[] entries = Repository.CWD.listFiles();
+        if (entries == null || entries.length == 0) {
+            return;
+        }
+        if (!MARKER.exists()) {
+            throw new IllegalStateException("Run the benchmarks in an empty directory, not "
+                    + Repository.CWD);
+        }
+        for (File entry : entries) {
+            try (Stream<Path> walk = Files.walk(entry.toPath())) {
+                walk.sorted(Comparator.reverseOrder()).map(Path::toFile)
+                        .forEach(File::delete);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /** Run GENERATE with System.out discarded, then save the index. */
+    private static void quietly(Runnable generate) {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        try {
+            generate.run();
+            Index.save();
+        } finally {
+            System.setOut(out);
+        }
+    }
+}
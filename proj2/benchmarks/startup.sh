@@ -0,0 +1,71 @@
+#!/bin/bash
+# Compare the latency of short commands (status, log and add of one file)
+# when gitlet runs in a plain JVM, in a JVM with the AppCDS archive, as a
+# native executable and through a daemon.
+#
+# Usage: benchmarks/startup.sh [RUNS]
+#
+# RUNS (default 10) is the number of times each command is timed; the
+# median is reported. Run `make` in proj2 first; the appcds and native
+# rows need `mvn -P appcds package` and `mvn -P native package`, and are
+# skipped when their outputs are missing from proj2/target.
+
+set -e
+PROJ=$(cd "$(dirname "$0")/.." && pwd)
+RUNS=${1:-10}
+WORK=$(mktemp -d)
+trap 'cd "$WORK" && java -cp "$PROJ" gitlet.Main daemon --stop > /dev/null 2>&1; rm -rf "$WORK"' EXIT
+export GITLET_AUTO_GC=0
+
+cd "$WORK"
+java -cp "$PROJ" gitlet.Main init
+for i in $(seq 1 200); do
+    seq "$i" $((i + 500)) > "file$i.txt"
+done
+GITLET_DAEMON=0 java -cp "$PROJ" gitlet.Main add .
+for i in $(seq 1 20); do
+    echo "$i" >> "file$i.txt"
+    GITLET_DAEMON=0 java -cp "$PROJ" gitlet.Main add "file$i.txt"
+    GITLET_DAEMON=0 java -cp "$PROJ" gitlet.Main commit "commit $i"
+done
+
+now() {
+    date +%s%N
+}
+
+# Print the median time in ms of RUNS runs of the gitlet command "$@".
+median() {
+    local times=()
+    for run in $(seq 1 "$RUNS"); do
+        echo "$run" >> file1.txt
+        local start
+        start=$(now)
+        "$@" > /dev/null
+        times+=($((($(now) - start) / 1000000)))
+    done
+    printf "%s\n" "${times[@]}" | sort -n | sed -n "$(((RUNS + 1) / 2))p"
+}
+
+row() {
+    local mode=$1
+    shift
+    printf "%-8s %10s %10s %10s\n" "$mode" "$(median "$@" status)" \
+        "$(median "$@" log)" "$(median "$@" add file1.txt)"
+}
+
+printf "%-8s %10s %10s %10s\n" mode status_ms log_ms add_ms
+export GITLET_DAEMON=0
+row java java -cp "$PROJ" gitlet.Main
+if [ -f "$PROJ/target/gitlet.jsa" ]; then
+    row appcds java -XX:SharedArchiveFile="$PROJ/target/gitlet.jsa" \
+        -cp "$PROJ/target/gitlet.jar" gitlet.Main
+fi
+if [ -x "$PROJ/target/gitlet" ]; then
+    row native "$PROJ/target/gitlet"
+fi
+unset GITLET_DAEMON
+java -cp "$PROJ" gitlet.Main daemon > /dev/null 2>&1 &
+while [ ! -S .gitlet/daemon.sock ]; do
+    sleep 0.1
+done
+row daemon env GITLET_CLASSPATH="$PROJ" "$PROJ/bin/gitlet"
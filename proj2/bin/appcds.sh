@@ -0,0 +1,56 @@
+#!/bin/sh
+# Build an AppCDS archive for gitlet: the classes loaded by a run of the
+# common commands are recorded into a shared archive that later JVMs map
+# instead of loading and verifying those classes again. The commands are
+# run by one daemon (see gitlet.Server), so a single JVM sees them all.
+#
+# Usage: bin/appcds.sh JAR ARCHIVE
+# Run by `mvn -P appcds package`, which builds target/gitlet.jar and
+# target/gitlet.jsa; bin/gitlet uses the archive when it exists.
+
+set -e
+JAR=$(cd "$(dirname "$1")" && pwd)/$(basename "$1")
+ARCHIVE=$(cd "$(dirname "$2")" && pwd)/$(basename "$2")
+WORK=$(mktemp -d)
+trap 'rm -rf "$WORK"' EXIT
+cd "$WORK"
+
+export GITLET_AUTO_GC=0
+java -cp "$JAR" gitlet.Main init
+java -XX:ArchiveClassesAtExit="$ARCHIVE" -cp "$JAR" gitlet.Main daemon > /dev/null &
+daemon=$!
+while [ ! -S .gitlet/daemon.sock ]; do
+    kill -0 "$daemon"
+    sleep 0.1
+done
+
+gitlet() {
+    java -cp "$JAR" gitlet.Main "$@" > /dev/null
+}
+for i in 1 2 3; do
+    seq "$i" 1000 > "file$i.txt"
+done
+gitlet add .
+gitlet commit "training"
+gitlet branch other
+gitlet checkout other
+echo changed > file1.txt
+gitlet add file1.txt
+gitlet rm file2.txt
+gitlet status
+gitlet commit "other"
+gitlet checkout master
+echo conflict > file1.txt
+gitlet add file1.txt
+gitlet commit "conflict"
+gitlet merge other
+gitlet log
+gitlet global-log
+gitlet find training
+gitlet checkout -- file3.txt
+gitlet reset "$(java -cp "$JAR" gitlet.Main find training)"
+gitlet rm-branch other
+gitlet repack
+gitlet gc
+gitlet daemon --stop
+wait "$daemon"
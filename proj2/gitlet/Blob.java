@@ -1,50 +1,607 @@
 package gitlet;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.io.SequenceInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 import static gitlet.Utils.join;
 
 /**
  * Represents files.
+ * A blob is stored as a small header (magic, format, content length)
+ * followed by its contents, and is written and read a chunk at a time so
+ * that memory use does not depend on the size of the file. Contents are
+ * deflated at the level set by GITLET_COMPRESSION (1, the fastest, by
+ * default), unless their first chunk shows they do not compress, as with
+ * images or archives. Raw contents, including everything written at
+ * level 0, can be copied straight from the object (loose or packed) to
+ * the working file by checkout with FileChannel.transferTo.
+ * A new version of a file may instead be stored as a delta against its
+ * previous version, when that is less than half its size; the delta names
+ * its base and records how many deltas deep it is, which is limited by
+ * GITLET_DELTA_DEPTH. The gc command picks better bases afterwards.
+ * Files of at least GITLET_CHUNKED_MIB mebibytes are instead split into
+ * content-defined chunks (see Chunker), each stored as a blob of its own,
+ * and the file's blob lists their IDs; chunks shared with other versions
+ * or files are stored once, so appending to a big file only stores the
+ * chunks at its end. Whatever the format, a blob's ID depends only on its
+ * contents.
+ * A blob's ID is the SHA1 of "blob SIZE\0" followed by its contents, so
+ * it does not depend on how Java serializes objects. Blobs written by
+ * earlier versions, which hold the whole file in a serialized Blob, are
+ * still read, for the migrate command.
  * @author CuiYuxin
  */
 public class Blob implements Serializable {
+    /** Pinned so that blobs written by earlier versions stay readable. */
+    private static final long serialVersionUID = 8580300320874078927L;
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The Blob directory. */
     public static final File BLOB_DIR = join(CWD, ".gitlet", "blobs");
+    /** The Blob store. */
+    static final ObjectStore STORE = new ObjectStore(BLOB_DIR);
+    /** Contents read by getBlob, shared by everything a command does. */
+    static final ObjectCache<byte[]> CACHE = new ObjectCache<>(32 << 20, b -> b.length);
+    /** The magic number starting every blob in the current formats. */
+    private static final int MAGIC = 0x474c4200; // "GLB\0"
+    /** Format of a blob whose contents are stored as they are. */
+    private static final int RAW = 'r';
+    /** Format of a blob whose contents are deflated. */
+    private static final int DEFLATED = 'z';
+    /** Format of a blob stored as a delta against another blob: its depth
+     *  and the ID of its base follow the header, then the deflated delta. */
+    private static final int DELTA = 'd';
+    /** Format of a blob split into chunks: the number of chunks and their
+     *  IDs, in order, follow the header. */
+    private static final int CHUNKED = 'c';
+    /** The size of the header: magic, format and content length. */
+    private static final int HEADER = 4 + 1 + 8;
+    /** The size of the chunks files are read and written in. */
+    private static final int CHUNK = 64 * 1024;
+    /** The deflate level blobs are written with: 0 stores them raw, 1 to 9
+     *  trade speed for size. */
+    static final int LEVEL = setting("GITLET_COMPRESSION", 9, Deflater.BEST_SPEED);
+    /** The deepest depth a delta header can record. */
+    private static final int DEPTH_LIMIT = 0xff;
+    /** The longest chain of deltas a blob may be at the end of; 0 stores
+     *  no deltas. It is at most DEPTH_LIMIT, as the depth is one byte. */
+    static final int MAX_DEPTH = setting("GITLET_DELTA_DEPTH", DEPTH_LIMIT, 10);
+    /** Files bigger than this are never stored as deltas, since deltas are
+     *  built and applied in memory. */
+    static final int MAX_DELTA_SIZE = 64 << 20;
+    /** Files smaller than this are not worth storing as deltas. */
+    private static final int MIN_DELTA_SIZE = 64;
+    /** Files at least this big are stored in chunks; 0 never chunks. */
+    static final long CHUNKED_SIZE = (long) setting("GITLET_CHUNKED_MIB", 1 << 20, 8) << 20;
+    /** Contents whose first chunk deflates to more than this fraction of
+     *  its size are stored raw. */
+    private static final double MIN_SAVING = 0.9;
     /** The Blob file. */
     byte[] blob;
 
+    /** Return the value of the environment variable NAME if it is a number
+     *  no greater than MAX, or DEFAULTVALUE. */
+    private static int setting(String name, int max, int defaultValue) {
+        String value = System.getenv(name);
+        if (value != null && value.matches("[0-9]{1,9}") && Integer.parseInt(value) <= max) {
+            return Integer.parseInt(value);
+        }
+        return defaultValue;
+    }
+
+    /** Return a digest that has been fed the ID header of a blob of SIZE bytes. */
+    private static MessageDigest startId(long size) {
+        MessageDigest md = Utils.sha1Digest();
+        md.update(("blob " + size + "\0").getBytes(StandardCharsets.UTF_8));
+        return md;
+    }
+
+    /**
+     * Return the ID the contents of FILE would have as a blob, without
+     * storing it.
+     * @author CuiYuxin
+     */
+    public static String hash(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return store(in, in.size(), false, false);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Write the contents of FILE to disk as a blob and return its file
+     * name(SHA1).
+     * @author CuiYuxin
+     */
+    public static String write(File file) {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (CHUNKED_SIZE > 0 && in.size() >= CHUNKED_SIZE) {
+                return storeChunked(in, in.size());
+            }
+            return store(in, in.size(), true, false);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Write the contents of FILE, a new version of the file whose previous
+     * version is blob BASEID ("" if there is none), and return its ID. The
+     * blob is stored as a delta against BASEID if that is small enough and
+     * would not make the chain of deltas too deep.
+     * @author CuiYuxin
+     */
+    public static String write(File file, String baseID) {
+        long size = file.length();
+        if (baseID.equals("") || MAX_DEPTH == 0 || size < MIN_DELTA_SIZE
+                || size > MAX_DELTA_SIZE || (CHUNKED_SIZE > 0 && size >= CHUNKED_SIZE)) {
+            return write(file);
+        }
+        byte[] contents = Utils.readContents(file);
+        String id = id(contents);
+        if (STORE.contains(id)) {
+            return id;
+        }
+        int depth = depth(baseID);
+        byte[] delta = null;
+        if (depth >= 0 && depth < MAX_DEPTH) {
+            delta = delta(getBlob(baseID), contents);
+        }
+        if (delta != null) {
+            writeDelta(id, contents.length, baseID, depth + 1, delta, false);
+        } else {
+            write(contents, false);
+        }
+        return id;
+    }
+
+    /**
+     * Return the ID CONTENTS would have as a blob.
+     * @author CuiYuxin
+     */
+    static String id(byte[] contents) {
+        return id(contents, 0, contents.length);
+    }
+
+    /**
+     * Return the ID the LEN bytes of CONTENTS starting at OFF would have as
+     * a blob.
+     * @author CuiYuxin
+     */
+    static String id(byte[] contents, int off, int len) {
+        MessageDigest md = startId(len);
+        md.update(contents, off, len);
+        return Utils.toHex(md.digest());
+    }
+
+    /** Split the SIZE bytes read from IN into chunks, store those not yet
+     *  stored, and store the list of chunks as the blob. Return its ID. */
+    private static String storeChunked(ReadableByteChannel in, long size) throws IOException {
+        MessageDigest md = startId(size);
+        List<String> chunks = new ArrayList<>();
+        Chunker chunker = new Chunker(in);
+        for (ByteBuffer c = chunker.next(); c != null; c = chunker.next()) {
+            byte[] data = c.array();
+            md.update(data, c.position(), c.remaining());
+            String chunkID = id(data, c.position(), c.remaining());
+            if (!STORE.contains(chunkID)) {
+                write(Arrays.copyOfRange(data, c.position(), c.limit()), false);
+            }
+            chunks.add(chunkID);
+        }
+        String id = Utils.toHex(md.digest());
+        if (STORE.contains(id)) {
+            return id;
+        }
+        File tmp = STORE.tempFile();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), CHUNK))) {
+            out.writeInt(MAGIC);
+            out.writeByte(CHUNKED);
+            out.writeLong(size);
+            out.writeInt(chunks.size());
+            for (String chunkID : chunks) {
+                out.write(Utils.fromHex(chunkID));
+            }
+        } catch (IOException e) {
+            tmp.delete();
+            throw e;
+        }
+        STORE.install(id, tmp);
+        return id;
+    }
+
+    /**
+     * Return whether blob BLOBID is stored as a list of chunks.
+     * @author CuiYuxin
+     */
+    static boolean isChunked(String blobID) {
+        ByteBuffer header = header(blobID, 0);
+        return header != null && header.remaining() == HEADER && header.getInt() == MAGIC
+                && header.get() == CHUNKED;
+    }
+
+    /**
+     * Return a delta turning BASE into CONTENTS, or null if it would not be
+     * less than half the size of CONTENTS.
+     * @author CuiYuxin
+     */
+    static byte[] delta(byte[] base, byte[] contents) {
+        long start = Trace.start();
+        byte[] delta = Delta.create(base, contents, contents.length / 2);
+        Trace.end(Trace.DELTA_CREATE, start, contents.length);
+        return delta;
+    }
+
+    /**
+     * Store CONTENTS whole. If REPLACE, any existing representation of the
+     * blob is replaced. Return its ID.
+     * @author CuiYuxin
+     */
+    static String write(byte[] contents, boolean replace) {
+        return store(Channels.newChannel(new ByteArrayInputStream(contents)),
+                contents.length, true, replace);
+    }
+
+    /**
+     * Store blob ID, whose contents are SIZE bytes long, as the delta DELTA
+     * against blob BASEID, at depth DEPTH. If REPLACE, any existing
+     * representation of the blob is replaced.
+     * @author CuiYuxin
+     */
+    static void writeDelta(String id, int size, String baseID, int depth, byte[] delta,
+                           boolean replace) {
+        if (depth < 1 || depth > DEPTH_LIMIT) {
+            throw Utils.error("Delta depth %d out of range.", depth);
+        }
+        long start = Trace.start();
+        File tmp = STORE.tempFile();
+        Deflater deflater = new Deflater(LEVEL);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tmp), CHUNK))) {
+            out.writeInt(MAGIC);
+            out.writeByte(DELTA);
+            out.writeLong(size);
+            out.writeByte(depth);
+            out.write(Utils.fromHex(baseID));
+            DeflaterOutputStream body = new DeflaterOutputStream(out, deflater, CHUNK);
+            body.write(delta);
+            body.finish();
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            deflater.end();
+        }
+        if (replace) {
+            STORE.replace(id, tmp);
+        } else {
+            STORE.install(id, tmp);
+        }
+        Trace.end(Trace.BLOB_DELTA, start, delta.length);
+    }
+
+    /**
+     * Return how many deltas deep blob BLOBID is stored: 0 if it is stored
+     * whole, -1 if it does not exist.
+     * @author CuiYuxin
+     */
+    static int depth(String blobID) {
+        ByteBuffer header = header(blobID, 1);
+        if (header == null) {
+            return -1;
+        }
+        if (!isDelta(header)) {
+            return 0;
+        }
+        return header.get(HEADER) & 0xff;
+    }
+
+    /** Return whether HEADER, the start of a blob, says it is stored as a
+     *  delta. */
+    private static boolean isDelta(ByteBuffer header) {
+        return header.remaining() >= HEADER + 1 && header.getInt(0) == MAGIC
+                && header.get(4) == DELTA;
+    }
     /**
-     * Constructor.
+     * Store the contents of blob OLDID, written by an earlier version, in
+     * the current format and return their new ID, for migration.
      * @author CuiYuxin
      */
-    public Blob(File file) {
-        blob = Utils.readContents(file);
-        if (!BLOB_DIR.exists()) {
-            BLOB_DIR.mkdir();
+    static String rewrite(String oldID) {
+        long size = size(oldID);
+        try (InputStream in = open(oldID)) {
+            if (size < 0) {
+                return write(in.readAllBytes(), false);
+            }
+            return store(Channels.newChannel(in), size, true, false);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Hash the SIZE bytes read from IN a chunk at a time and, if SAVE, copy
+     *  them into the store as they go, replacing any existing representation
+     *  if REPLACE. Return their ID. */
+    private static String store(ReadableByteChannel in, long size, boolean save,
+                                boolean replace) {
+        long start = Trace.start();
+        File tmp = save ? STORE.tempFile() : null;
+        DataOutputStream header = null;
+        Deflater deflater = null;
+        boolean stored = false;
+        try {
+            MessageDigest md = startId(size);
+            ByteBuffer buf = ByteBuffer.allocate(CHUNK);
+            fill(in, buf);
+            OutputStream out = null;
+            if (save) {
+                header = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tmp), CHUNK));
+                boolean deflate = compresses(buf.array(), buf.position());
+                header.writeInt(MAGIC);
+                header.writeByte(deflate ? DEFLATED : RAW);
+                header.writeLong(size);
+                out = header;
+                if (deflate) {
+                    deflater = new Deflater(LEVEL);
+                    out = new DeflaterOutputStream(header, deflater, CHUNK);
+                }
+            }
+            while (buf.position() > 0) {
+                md.update(buf.array(), 0, buf.position());
+                if (save) {
+                    out.write(buf.array(), 0, buf.position());
+                }
+                buf.clear();
+                fill(in, buf);
+            }
+            String id = Utils.toHex(md.digest());
+            if (save) {
+                out.close();
+                header = null;
+                if (replace) {
+                    STORE.replace(id, tmp);
+                } else {
+                    STORE.install(id, tmp);
+                }
+            }
+            stored = true;
+            Trace.end(save ? Trace.BLOB_WRITE : Trace.BLOB_HASH, start, size);
+            return id;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            if (header != null) { // failed part way: the file is discarded unfinished
+                try {
+                    header.close();
+                } catch (IOException e) {
+                    // already failing
+                }
+            }
+            if (deflater != null) {
+                deflater.end();
+            }
+            if (!stored && tmp != null) {
+                tmp.delete();
+            }
         }
     }
 
-    /** Write the blob to disk and return file name(SHA1).
-     *  @author CuiYuxin
+    /** Read from IN until BUF is full or IN is exhausted. */
+    private static void fill(ReadableByteChannel in, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining() && in.read(buf) >= 0) {
+            continue;
+        }
+    }
+
+    /** Return whether contents starting with the first N bytes of SAMPLE
+     *  should be deflated. */
+    private static boolean compresses(byte[] sample, int n) {
+        if (LEVEL == 0 || n == 0) {
+            return false;
+        }
+        Deflater deflater = new Deflater(LEVEL);
+        deflater.setInput(sample, 0, n);
+        deflater.finish();
+        byte[] out = new byte[n];
+        int deflated = 0;
+        while (!deflater.finished() && deflated < n) {
+            deflated += deflater.deflate(out, deflated, n - deflated);
+        }
+        boolean smaller = deflater.finished() && deflated <= n * MIN_SAVING;
+        deflater.end();
+        return smaller;
+    }
+
+    /**
+     * Return a stream over the contents of blob BLOBID.
+     * @author CuiYuxin
      */
-    public String write() {
-        String sp = File.separator;
-        String fileName = Utils.sha1(Utils.serialize(this));
-        File blobFile = new File(".gitlet" + sp + "blobs" + sp + fileName);
-        if (!blobFile.exists()) {
-            try {
-                blobFile.createNewFile();
-            } catch (IOException e) {
-                //e.printStackTrace();
+    public static InputStream open(String blobID) {
+        InputStream raw = STORE.open(blobID);
+        if (raw == null) {
+            throw Utils.error("No blob %s.", blobID);
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(raw, CHUNK));
+            in.mark(4);
+            if (in.readInt() != MAGIC) {
+                in.reset();
+                Blob b = Utils.deserialize(in.readAllBytes(), Blob.class);
+                in.close();
+                return new ByteArrayInputStream(b.blob);
             }
-            Utils.writeObject(blobFile, this);
+            int format = in.readByte();
+            in.readLong();
+            if (format == RAW) {
+                return in;
+            } else if (format == DELTA) {
+                in.close();
+                return new ByteArrayInputStream(getBlob(blobID));
+            } else if (format == CHUNKED) {
+                Iterator<String> chunks = readChunks(in).iterator();
+                in.close();
+                return new SequenceInputStream(new Enumeration<InputStream>() {
+                    @Override
+                    public boolean hasMoreElements() {
+                        return chunks.hasNext();
+                    }
+
+                    @Override
+                    public InputStream nextElement() {
+                        return open(chunks.next());
+                    }
+                });
+            } else if (format == DEFLATED) {
+                Inflater inflater = new Inflater();
+                return new InflaterInputStream(in, inflater, CHUNK) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            }
+            in.close();
+            throw Utils.error("Unknown format of blob %s.", blobID);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Read the list of chunk IDs that follows the header from IN. */
+    private static List<String> readChunks(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<String> chunks = new ArrayList<>(n);
+        byte[] raw = new byte[Codec.SHA_BYTES];
+        for (int i = 0; i < n; i += 1) {
+            in.readFully(raw);
+            chunks.add(Utils.toHex(raw));
         }
-        return fileName;
+        return chunks;
+    }
+
+    /**
+     * Write the contents of blob BLOBID to FILE, creating the directories
+     * above it as needed. Raw blobs are transferred
+     * from the object file by the kernel without passing through the heap;
+     * others are copied a chunk at a time.
+     * @author CuiYuxin
+     */
+    public static void checkout(String blobID, File file) {
+        if (file.getParentFile() != null) {
+            file.getParentFile().mkdirs();
+        }
+        try (ObjectStore.Location loc = STORE.locate(blobID)) {
+            if (loc == null) {
+                throw Utils.error("No blob %s.", blobID);
+            }
+            FileChannel src = loc.channel;
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            src.read(header, loc.offset);
+            header.flip();
+            if (header.remaining() == HEADER && header.getInt() == MAGIC
+                    && header.get() == RAW) {
+                long size = header.getLong();
+                try (FileChannel dst = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    long done = 0;
+                    while (done < size) {
+                        long n = src.transferTo(loc.offset + HEADER + done, size - done, dst);
+                        if (n <= 0) {
+                            throw Utils.error("Blob %s is truncated.", blobID);
+                        }
+                        done += n;
+                    }
+                }
+                return;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try (InputStream in = open(blobID)) {
+            Files.copy(in, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Return the length of the contents of blob BLOBID, or -1 if it is not
+     * recorded in the blob's header.
+     * @author CuiYuxin
+     */
+    public static long size(String blobID) {
+        ByteBuffer header = header(blobID, 0);
+        if (header != null && header.remaining() == HEADER && header.getInt() == MAGIC) {
+            header.get();
+            return header.getLong();
+        }
+        return -1;
+    }
+
+    /** Return the first HEADER + EXTRA bytes of the object BLOBID, or fewer
+     *  if it is shorter, or null if it cannot be read. */
+    private static ByteBuffer header(String blobID, int extra) {
+        try (ObjectStore.Location loc = STORE.locate(blobID)) {
+            if (loc == null) {
+                return null;
+            }
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(HEADER + extra, loc.length));
+            while (header.hasRemaining()
+                    && loc.channel.read(header, loc.offset + header.position()) > 0) {
+                continue;
+            }
+            return header.flip();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Return whether FILE exists and holds the contents of blob BLOBID.
+     * @author CuiYuxin
+     */
+    public static boolean matches(String blobID, File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        long size = size(blobID);
+        if (size >= 0 && size != file.length()) {
+            return false;
+        }
+        return Index.get().hash(file).equals(blobID);
     }
 
     /**
@@ -52,9 +609,60 @@ public class Blob implements Serializable {
      * @author CuiYuxin
      */
     public static byte[] getBlob(String blobID) {
-        String sp = File.separator;
-        File blob = new File(".gitlet" + sp + "blobs" + sp + blobID);
-        Blob b = Utils.readObject(blob, Blob.class);
-        return b.blob;
+        long start = Trace.start();
+        byte[] contents = CACHE.get(blobID, Blob::load);
+        Trace.end(Trace.BLOB_GET, start, contents == null ? 0 : contents.length);
+        return contents;
+    }
+
+    /** Read the whole contents of blob BLOBID from the store, inflating
+     *  them straight into an array of the size the header records. */
+    private static byte[] load(String blobID) {
+        long start = Trace.start();
+        ByteBuffer header = header(blobID, 1);
+        byte[] contents = header != null && isDelta(header) ? undelta(blobID)
+                : loadWhole(blobID);
+        Trace.end(Trace.BLOB_LOAD, start, contents.length);
+        return contents;
+    }
+
+    /** Read the contents of blob BLOBID, which is not stored as a delta. */
+    private static byte[] loadWhole(String blobID) {
+        long size = size(blobID);
+        try (InputStream in = open(blobID)) {
+            if (size < 0 || size > Integer.MAX_VALUE - 8) {
+                return in.readAllBytes();
+            }
+            byte[] contents = new byte[(int) size];
+            if (in.readNBytes(contents, 0, contents.length) != contents.length) {
+                throw Utils.error("Blob %s is truncated.", blobID);
+            }
+            return contents;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /** Rebuild the contents of blob BLOBID, which is stored as a delta, from
+     *  its base. */
+    private static byte[] undelta(String blobID) {
+        byte[] base = new byte[Codec.SHA_BYTES];
+        byte[] delta;
+        long size;
+        Inflater inflater = new Inflater();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                STORE.open(blobID), CHUNK))) {
+            in.readInt();
+            in.readByte();
+            size = in.readLong();
+            in.readByte();
+            in.readFully(base);
+            delta = new InflaterInputStream(in, inflater, CHUNK).readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return Delta.apply(getBlob(Utils.toHex(base)), delta, (int) size);
     }
 }
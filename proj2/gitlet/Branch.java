@@ -8,10 +8,16 @@ import java.util.List;
 import static gitlet.Utils.join;
 
 public class Branch implements Serializable  {
+    /** Pinned so that files written by earlier versions stay readable. */
+    private static final long serialVersionUID = -8114837844968992912L;
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The branch directory. */
     public static final File BRANCH_DIR = join(CWD, ".gitlet", "branches");
+    /** The Codec tag of branches. */
+    private static final int TAG = 'b';
+    /** The Codec format version of branches. */
+    private static final int VERSION = 1;
     /** The name of the branch. */
     private String name;
     /** The commit SHA1 of the head of this branch. */
@@ -27,7 +33,16 @@ public class Branch implements Serializable  {
         if (!branchFile.exists()) {
             return null;
         }
-        return Utils.readObject(branchFile, Branch.class);
+        Codec.Reader r = new Codec.Reader(Utils.readContents(branchFile), TAG, VERSION);
+        return new Branch(r.string(), r.id());
+    }
+
+    /**
+     * Read a branch as written by earlier versions, for migration.
+     * @author CuiYuxin
+     */
+    static Branch readLegacy(String name) {
+        return Utils.readObject(join(BRANCH_DIR, name), Branch.class);
     }
 
     /**
@@ -84,7 +99,8 @@ public class Branch implements Serializable  {
                 //e.printStackTrace();
             }
         }
-        Utils.writeObject(branchFile, this);
+        Utils.writeContents(branchFile,
+                new Codec.Writer(TAG, VERSION).string(name).id(latestCommit).toByteArray());
     }
 
     /**
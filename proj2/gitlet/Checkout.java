@@ -0,0 +1,120 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Moves the working directory from one commit to another.
+ * Only the files whose contents differ from the target are written and
+ * only the files the target does not track are deleted; the work is
+ * spread over a bounded pool of threads. Files the two commits track
+ * with the same contents are only stat'ed, and only those whose stat data
+ * does not match the Index are read.
+ * @author CuiYuxin
+ */
+class Checkout {
+    /** The most threads used to read blobs and write files. */
+    static final int THREADS = Math.min(8, Runtime.getRuntime().availableProcessors());
+    /** Below this many files the work is done on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 16;
+
+    /**
+     * Make the working files tracked by CUR look like those tracked by
+     * TARGET: write the files of TARGET that are missing or differ, and
+     * delete the files of CUR that TARGET does not track.
+     * @author CuiYuxin
+     */
+    static void run(Commit cur, Commit target) {
+        Set<String> changed = Commit.changedFiles(cur, target);
+        Map<String, String> targetBlobs = target.getBlobs();
+        // Deletions go first, each removing the directories it empties, so
+        // that no directory is removed under a file being written.
+        List<Callable<Void>> deletions = new ArrayList<>();
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (String file : changed) {
+            String blobID = targetBlobs.get(file);
+            if (blobID == null) {
+                deletions.add(() -> {
+                    WorkTree.delete(file);
+                    return null;
+                });
+            } else {
+                tasks.add(() -> {
+                    Blob.checkout(blobID, new File(file));
+                    return null;
+                });
+            }
+        }
+        runAll(deletions);
+        Index index = Index.get();
+        for (Map.Entry<String, String> entry : targetBlobs.entrySet()) {
+            String file = entry.getKey();
+            String blobID = entry.getValue();
+            if (changed.contains(file) || index.known(new File(file), stat(file), blobID)) {
+                continue;
+            }
+            tasks.add(() -> {
+                File f = new File(file);
+                if (!Blob.matches(blobID, f)) {
+                    Blob.checkout(blobID, f);
+                }
+                return null;
+            });
+        }
+        runAll(tasks);
+    }
+
+    /** Return the stat data of the working file FILE, or null if there is
+     *  no such file. */
+    private static BasicFileAttributes stat(String file) {
+        try {
+            return Files.readAttributes(new File(file).toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /** Run TASKS, in parallel if there are enough of them, and rethrow the
+     *  first failure. */
+    private static void runAll(List<Callable<Void>> tasks) {
+        if (tasks.size() < PARALLEL_THRESHOLD || THREADS <= 1) {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw Utils.error("Cannot check out: %s", e.getMessage());
+                }
+            }
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Future<Void> done : pool.invokeAll(tasks)) {
+                done.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw Utils.error("Cannot check out: %s", e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Utils.error("Checkout interrupted.");
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
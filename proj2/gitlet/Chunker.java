@@ -0,0 +1,114 @@
+package gitlet;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.SplittableRandom;
+
+/**
+ * Splits a stream into content-defined chunks with FastCDC: a gear hash
+ * of the last 64 bytes is updated for every byte, and a chunk ends where
+ * the top bits of the hash are all zero. A stricter mask is used before
+ * the average chunk size and a looser one after it, which keeps chunk
+ * sizes close to the average. Since boundaries depend only on nearby
+ * content, an insertion or an append only changes the chunks around it.
+ * @author CuiYuxin
+ */
+class Chunker {
+    /** The smallest chunk, except at the end of the stream. */
+    static final int MIN = 16 << 10;
+    /** The average chunk size. */
+    static final int AVG = 64 << 10;
+    /** The largest chunk. */
+    static final int MAX = 256 << 10;
+    /** The random value mixed in for each byte value. */
+    private static final long[] GEAR = new long[256];
+    /** The mask used before the average size: harder to match. */
+    private static final long MASK_SMALL = topBits(Integer.numberOfTrailingZeros(AVG) + 2);
+    /** The mask used after the average size: easier to match. */
+    private static final long MASK_LARGE = topBits(Integer.numberOfTrailingZeros(AVG) - 2);
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x6769746c6574L); // fixed: boundaries must not change
+        for (int i = 0; i < GEAR.length; i += 1) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** The stream being split. */
+    private final ReadableByteChannel in;
+    /** Bytes read but not yet returned, in BUF[START .. END). */
+    private final byte[] buf = new byte[2 * MAX];
+    /** The start of the unreturned bytes. */
+    private int start;
+    /** The end of the bytes read. */
+    private int end;
+    /** Whether the stream is exhausted. */
+    private boolean eof;
+
+    /**
+     * Create a chunker reading from IN.
+     * @author CuiYuxin
+     */
+    Chunker(ReadableByteChannel in) {
+        this.in = in;
+    }
+
+    /**
+     * Return the next chunk, or null at the end of the stream. The chunk is
+     * a view of an internal buffer that is only valid until the next call.
+     * @author CuiYuxin
+     */
+    ByteBuffer next() throws IOException {
+        if (end - start < MAX && !eof) {
+            System.arraycopy(buf, start, buf, 0, end - start);
+            end -= start;
+            start = 0;
+            ByteBuffer free = ByteBuffer.wrap(buf, end, buf.length - end);
+            while (free.hasRemaining()) {
+                if (in.read(free) < 0) {
+                    eof = true;
+                    break;
+                }
+            }
+            end = free.position();
+        }
+        if (start == end) {
+            return null;
+        }
+        int n = cut(buf, start, end - start);
+        ByteBuffer chunk = ByteBuffer.wrap(buf, start, n);
+        start += n;
+        return chunk;
+    }
+
+    /** Return the length of the chunk starting at DATA[OFF], where LEN
+     *  bytes are available. */
+    private static int cut(byte[] data, int off, int len) {
+        if (len <= MIN) {
+            return len;
+        }
+        int normal = Math.min(AVG, len);
+        int limit = Math.min(MAX, len);
+        long fp = 0;
+        int i = MIN;
+        for (; i < normal; i += 1) {
+            fp = (fp << 1) + GEAR[data[off + i] & 0xff];
+            if ((fp & MASK_SMALL) == 0) {
+                return i;
+            }
+        }
+        for (; i < limit; i += 1) {
+            fp = (fp << 1) + GEAR[data[off + i] & 0xff];
+            if ((fp & MASK_LARGE) == 0) {
+                return i;
+            }
+        }
+        return limit;
+    }
+
+    /** Return a mask of the top N bits of a long. */
+    private static long topBits(int n) {
+        return -1L << (64 - n);
+    }
+}
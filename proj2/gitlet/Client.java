@@ -0,0 +1,73 @@
+package gitlet;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The client side of the daemon (see Server): forwards a command to the
+ * daemon of the repository in the working directory, if one is running,
+ * and copies its output to System.out. Setting GITLET_DAEMON to 0 runs
+ * every command in its own process.
+ * @author CuiYuxin
+ */
+class Client {
+    /**
+     * Run the command ARGS in the daemon. Return false, having done
+     * nothing, if no daemon answers.
+     * @author CuiYuxin
+     */
+    static boolean forward(String[] args) {
+        if ("0".equals(System.getenv("GITLET_DAEMON"))) {
+            return false;
+        }
+        SocketChannel daemon = connect();
+        if (daemon == null) {
+            return false;
+        }
+        try (daemon) {
+            OutputStream out = Channels.newOutputStream(daemon);
+            for (String arg : args) {
+                out.write(arg.getBytes(StandardCharsets.UTF_8));
+                out.write(0);
+            }
+            out.flush();
+            daemon.shutdownOutput();
+            InputStream in = Channels.newInputStream(daemon);
+            in.transferTo(System.out);
+            System.out.flush();
+        } catch (IOException e) {
+            System.out.println("Lost the connection to the daemon: " + e.getMessage());
+        }
+        return true;
+    }
+
+    /**
+     * Return a connection to the daemon of the repository in the working
+     * directory, or null if none answers.
+     * @author CuiYuxin
+     */
+    static SocketChannel connect() {
+        if (!Server.SOCKET.exists()) {
+            return null;
+        }
+        try {
+            SocketChannel channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            try {
+                channel.connect(UnixDomainSocketAddress.of(Repository.CWD.toPath().relativize(
+                        Server.SOCKET.toPath())));
+                return channel;
+            } catch (IOException e) {
+                channel.close();
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package gitlet;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The binary encoding of gitlet objects. Every object starts with a tag
+ * byte naming its kind and a version byte; its fields follow as unsigned
+ * LEB128 varints, length-prefixed UTF-8 strings and raw 20-byte SHA1s.
+ * Maps are written sorted by key, so an object has exactly one encoding
+ * and its ID, the SHA1 of that encoding, is stable.
+ * @author CuiYuxin
+ */
+class Codec {
+    /** Size of a raw SHA1. */
+    static final int SHA_BYTES = Utils.UID_LENGTH / 2;
+    /** The hexadecimal digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /** The value of each ASCII hexadecimal digit, -1 for other characters. */
+    private static final byte[] DIGIT = new byte[128];
+
+    static {
+        Arrays.fill(DIGIT, (byte) -1);
+        for (int i = 0; i < HEX.length; i += 1) {
+            DIGIT[HEX[i]] = (byte) i;
+            DIGIT[Character.toUpperCase(HEX[i])] = (byte) i;
+        }
+    }
+
+    /** Builds the encoding of an object. */
+    static class Writer {
+        /** The bytes written so far, in BUF[0 .. LEN). */
+        private byte[] buf = new byte[256];
+        /** The number of bytes written. */
+        private int len;
+
+        /**
+         * Start an object of kind TAG, encoded with format VERSION.
+         * @author CuiYuxin
+         */
+        Writer(int tag, int version) {
+            buf[len++] = (byte) tag;
+            buf[len++] = (byte) version;
+        }
+
+        /**
+         * Start a run of fields with no tag or version, to be appended to
+         * an object already written.
+         * @author CuiYuxin
+         */
+        Writer() {
+        }
+
+        /**
+         * Write the non-negative number N.
+         * @author CuiYuxin
+         */
+        Writer varint(long n) {
+            reserve(10);
+            while ((n & ~0x7fL) != 0) {
+                buf[len++] = (byte) ((n & 0x7f) | 0x80);
+                n >>>= 7;
+            }
+            buf[len++] = (byte) n;
+            return this;
+        }
+
+        /**
+         * Write the string S.
+         * @author CuiYuxin
+         */
+        Writer string(String s) {
+            int n = s.length();
+            reserve(n + 5);
+            int start = len;
+            varint(n);
+            for (int i = 0; i < n; i += 1) {
+                char c = s.charAt(i);
+                if (c >= 0x80) { // not ASCII: encode the slow way
+                    len = start;
+                    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                    varint(bytes.length);
+                    reserve(bytes.length);
+                    System.arraycopy(bytes, 0, buf, len, bytes.length);
+                    len += bytes.length;
+                    return this;
+                }
+                buf[len++] = (byte) c;
+            }
+            return this;
+        }
+
+        /**
+         * Write the SHA1 ID, which must be complete.
+         * @author CuiYuxin
+         */
+        Writer id(String id) {
+            if (id.length() != Utils.UID_LENGTH) {
+                throw Utils.error("Not a complete ID: %s.", id);
+            }
+            reserve(SHA_BYTES);
+            for (int i = 0; i < SHA_BYTES; i += 1) {
+                int hi = digit(id.charAt(2 * i));
+                int lo = digit(id.charAt(2 * i + 1));
+                if (hi < 0 || lo < 0) {
+                    throw Utils.error("Not a complete ID: %s.", id);
+                }
+                buf[len++] = (byte) (hi << 4 | lo);
+            }
+            return this;
+        }
+
+        /**
+         * Write MAP, whose values are SHA1s, sorted by key.
+         * @author CuiYuxin
+         */
+        Writer idMap(Map<String, String> map) {
+            String[] keys = map.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            varint(keys.length);
+            for (String key : keys) {
+                string(key);
+                id(map.get(key));
+            }
+            return this;
+        }
+
+        /**
+         * Return the number of bytes written.
+         * @author CuiYuxin
+         */
+        int size() {
+            return len;
+        }
+
+        /**
+         * Return the encoding.
+         * @author CuiYuxin
+         */
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, len);
+        }
+
+        /** Make room for N more bytes. */
+        private void reserve(int n) {
+            if (buf.length - len < n) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + n));
+            }
+        }
+    }
+
+    /** Return the value of the hexadecimal digit C, or -1. */
+    private static int digit(char c) {
+        return c < DIGIT.length ? DIGIT[c] : -1;
+    }
+
+    /** Decodes an object. */
+    static class Reader {
+        /** The encoding. */
+        private final byte[] buf;
+        /** The position of the next unread byte. */
+        private int pos;
+        /** The format version of the object. */
+        private final int version;
+
+        /**
+         * Start decoding BUF, which must hold an object of kind TAG in a
+         * format no newer than MAXVERSION.
+         * @author CuiYuxin
+         */
+        Reader(byte[] buf, int tag, int maxVersion) {
+            this.buf = buf;
+            if (buf.length < 2 || buf[0] != tag) {
+                throw Utils.error("Corrupt object: expected kind %c.", (char) tag);
+            }
+            version = buf[1];
+            if (version < 1 || version > maxVersion) {
+                throw Utils.error("Unsupported object version %d.", version);
+            }
+            pos = 2;
+        }
+
+        /**
+         * Return the format version of the object.
+         * @author CuiYuxin
+         */
+        int version() {
+            return version;
+        }
+
+        /**
+         * Read a non-negative number.
+         * @author CuiYuxin
+         */
+        long varint() {
+            long n = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = next();
+                n |= (long) (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return n;
+                }
+            }
+            throw Utils.error("Corrupt object: bad number.");
+        }
+
+        /**
+         * Read a string.
+         * @author CuiYuxin
+         */
+        String string() {
+            int len = (int) varint();
+            check(len);
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        /**
+         * Read a SHA1.
+         * @author CuiYuxin
+         */
+        String id() {
+            check(SHA_BYTES);
+            char[] digits = new char[Utils.UID_LENGTH];
+            for (int i = 0; i < SHA_BYTES; i += 1) {
+                int b = buf[pos++];
+                digits[2 * i] = HEX[(b >> 4) & 0xf];
+                digits[2 * i + 1] = HEX[b & 0xf];
+            }
+            return new String(digits);
+        }
+
+        /**
+         * Read a map whose values are SHA1s.
+         * @author CuiYuxin
+         */
+        Map<String, String> idMap(Map<String, String> into) {
+            long n = varint();
+            for (long i = 0; i < n; i += 1) {
+                String key = string();
+                into.put(key, id());
+            }
+            return into;
+        }
+
+        /**
+         * Return whether every byte has been read.
+         * @author CuiYuxin
+         */
+        boolean atEnd() {
+            return pos == buf.length;
+        }
+
+        /** Return the next byte. */
+        private int next() {
+            check(1);
+            return buf[pos++] & 0xff;
+        }
+
+        /** Check that N more bytes are left. */
+        private void check(int n) {
+            if (n < 0 || buf.length - pos < n) {
+                throw Utils.error("Corrupt object: truncated.");
+            }
+        }
+    }
+}
@@ -2,24 +2,58 @@ package gitlet;
 
 import java.io.File;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Date;
 import java.io.Serializable;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
 
 import static gitlet.Utils.join;
 
 /** Represents a gitlet commit object.
+ *  Commits are stored in the Codec encoding: message, timestamp, parents
+ *  and then either the file map sorted by name or, for commits tracking
+ *  more than INLINE_FILES files, the ID of the Tree holding it, so that a
+ *  commit changing a few files of a big repository only adds a few tree
+ *  nodes. Commits written by earlier versions as serialized Java objects
+ *  are only read by the migrate command.
  *  @author CuiYuXin
  */
 public class Commit implements Serializable {
+    /** Pinned so that commits written by earlier versions stay readable. */
+    private static final long serialVersionUID = 4117573471004215862L;
 
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The commit directory. */
     public static final File COMMIT_DIR = join(CWD, ".gitlet", "commits");
+    /** The commit store. */
+    static final ObjectStore STORE = new ObjectStore(COMMIT_DIR);
+    /** Decoded commits, shared by everything a command does. */
+    static final ObjectCache<Commit> CACHE = new ObjectCache<>(16 << 20, c -> c.encodedSize);
+    /** The Codec tag of commits. */
+    private static final int TAG = 'c';
+    /** The Codec format version of commits holding their file map. */
+    private static final int VERSION = 1;
+    /** The Codec format version of commits referring to a tree. */
+    private static final int TREE_VERSION = 2;
+    /** The most files a commit holds itself rather than in a tree. */
+    static final int INLINE_FILES = 256;
+    /** The shortest abbreviation of a commit ID that is accepted. */
+    static final int MIN_PREFIX = 4;
+    /** The number of commits global-log formats at a time. */
+    private static final int LOG_BATCH = 4096;
+    /** The format of dates in logs. */
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("E MMM dd HH:mm:ss yyyy Z");
     /** The message of this Commit. */
     private String message = "";
     /** The SHA1 of parent. */
@@ -28,8 +62,15 @@ public class Commit implements Serializable {
     private String parent2 = "";
     /** The TimeStamp of this Commit. */
     private Date timeStamp = new Date();
-    /** The commit map. Key:filename Value:SHA1 */
+    /** The commit map. Key:filename Value:SHA1. Null for a commit read
+     *  from the store whose files are in a tree. */
     Map<String, String> commmitMap = new java.util.HashMap<>();
+    /** The root of the tree of files, or "" if there is none yet. */
+    private String tree = "";
+    /** The size of the stored form of this Commit, once read. */
+    private transient int encodedSize;
+    /** The ID of this Commit, once read or written. */
+    private transient String id;
 
     /** Constructor
      *  @author CuiYuxin
@@ -71,63 +112,216 @@ public class Commit implements Serializable {
         return parent;
     }
 
-//    /** Return the parent2
-//     *  @author CuiYuxin */
-//    public String getParent2() {
-//        return parent2;
-//    }
-//
-//    /** Return the timestamp
-//     *  @author CuiYuxin */
-//    public Date getTimeStamp() {
-//        return timeStamp;
-//    }
+    /** Return the parent2
+     *  @author CuiYuxin
+     */
+    public String getParent2() {
+        return parent2;
+    }
+
+    /** Return the timestamp
+     *  @author CuiYuxin
+     */
+    public Date getTimeStamp() {
+        return timeStamp;
+    }
 
-    /** Return the Map<String,String>
+    /** Return the Map<String,String>. Commits are shared through the
+     *  cache, so the map cannot be modified.
      *  @author CuiYuxin
      */
     public Map<String, String> getBlobs() {
-        return commmitMap;
+        return Collections.unmodifiableMap(commmitMap != null ? commmitMap : Tree.files(tree));
+    }
+
+    /** Call ACTION with the name and blob of each file of this Commit,
+     *  skipping the tree nodes in SEEN and adding the others to it.
+     *  @author CuiYuxin
+     */
+    void forEachFile(Set<String> seen, BiConsumer<String, String> action) {
+        if (commmitMap != null) {
+            commmitMap.forEach(action);
+        } else {
+            Tree.forEachFile(tree, seen, action);
+        }
+    }
+
+    /** Return the names of the files whose contents differ between commits
+     *  A and B, including those only one of them tracks. Tree nodes the
+     *  two commits share are skipped.
+     *  @author CuiYuxin
+     */
+    static Set<String> changedFiles(Commit a, Commit b) {
+        if (a.commmitMap == null && b.commmitMap == null) {
+            return Tree.changed(a.tree, b.tree);
+        }
+        Map<String, String> aBlobs = a.getBlobs();
+        Map<String, String> bBlobs = b.getBlobs();
+        Set<String> files = new TreeSet<>();
+        for (Map.Entry<String, String> e : aBlobs.entrySet()) {
+            if (!e.getValue().equals(bBlobs.get(e.getKey()))) {
+                files.add(e.getKey());
+            }
+        }
+        for (String file : bBlobs.keySet()) {
+            if (!aBlobs.containsKey(file)) {
+                files.add(file);
+            }
+        }
+        return files;
+    }
+
+    /** Return the Codec encoding of this Commit, first writing its tree,
+     *  sharing what it can with that of the first parent, if it tracks
+     *  more than INLINE_FILES files.
+     *  @author CuiYuxin
+     */
+    byte[] encode() {
+        if (tree.equals("") && commmitMap.size() > INLINE_FILES) {
+            Commit base = parent.equals("") ? null : read(parent);
+            tree = Tree.write(commmitMap, base == null || base.tree == null ? "" : base.tree);
+        }
+        Codec.Writer w = new Codec.Writer(TAG, tree.equals("") ? VERSION : TREE_VERSION);
+        w.string(message).varint(timeStamp.getTime());
+        w.varint(parent2.equals("") ? (parent.equals("") ? 0 : 1) : 2);
+        if (!parent.equals("")) {
+            w.id(parent);
+        }
+        if (!parent2.equals("")) {
+            w.id(parent2);
+        }
+        if (!tree.equals("")) {
+            return w.id(tree).toByteArray();
+        }
+        return w.idMap(commmitMap).toByteArray();
+    }
+
+    /** Return the Commit encoded in CONTENTS.
+     *  @author CuiYuxin
+     */
+    static Commit decode(byte[] contents) {
+        return decode(contents, true);
+    }
+
+    /** Return the Commit encoded in CONTENTS, leaving out its files unless
+     *  WITHFILES: logs only need the fields before them. */
+    private static Commit decode(byte[] contents, boolean withFiles) {
+        Codec.Reader r = new Codec.Reader(contents, TAG, TREE_VERSION);
+        Commit cmt = new Commit();
+        cmt.message = r.string();
+        cmt.timeStamp = new Date(r.varint());
+        long parents = r.varint();
+        if (parents > 0) {
+            cmt.parent = r.id();
+        }
+        if (parents > 1) {
+            cmt.parent2 = r.id();
+        }
+        if (r.version() >= TREE_VERSION) {
+            cmt.tree = r.id();
+            cmt.commmitMap = null;
+        } else if (withFiles) {
+            cmt.commmitMap = r.idMap(new HashMap<>());
+        }
+        cmt.encodedSize = contents.length;
+        return cmt;
+    }
+
+    /** Return the ID (SHA1) of this Commit.
+     *  @author CuiYuxin
+     */
+    public String id() {
+        if (id == null) {
+            id = Utils.sha1(encode());
+        }
+        return id;
     }
 
     /** Write this Commit and return the filename(SHA1)
      *  @author CuiYuxin
      */
     public String write() {
-        if (!COMMIT_DIR.exists()) {
-            COMMIT_DIR.mkdir();
-        }
-        String sha1 = Utils.sha1(Utils.serialize(this));
-        String sp = File.separator;
-        File commitFile = new File(".gitlet" + sp + "commits" + sp + sha1);
-        if (!commitFile.exists()) {
-            try {
-                commitFile.createNewFile();
-            } catch (IOException e) {
-                //e.printStackTrace();
-            }
+        long start = Trace.start();
+        byte[] contents = encode();
+        id = Utils.sha1(contents);
+        if (STORE.write(id, contents)) {
+            MessageIndex.add(id, message);
         }
-        Utils.writeObject(commitFile, this);
-        return sha1;
+        Trace.end(Trace.COMMIT_WRITE, start, contents.length);
+        return id;
     }
 
-    /** Read commit.
+    /** Read commit. SHA1 may be abbreviated to any unique prefix of at
+     *  least MIN_PREFIX digits; an ambiguous prefix is an error.
      *  @author CuiYuxin */
     public static Commit read(String sha1) {
-        if (sha1.length() == 8) {
-            for (String fileName : Utils.plainFilenamesIn(COMMIT_DIR)) {
-                if (fileName.substring(0, 8).equals(sha1)) {
-                    sha1 = fileName;
-                    break;
-                }
+        if (sha1.length() < Utils.UID_LENGTH) {
+            sha1 = resolve(sha1);
+            if (sha1 == null) {
+                return null;
             }
         }
-        String sp = File.separator;
-        File commitFile = new File(".gitlet" + sp + "commits" + sp + sha1);
-        if (!commitFile.exists()) {
+        long start = Trace.start();
+        Commit cmt = CACHE.get(sha1, Commit::load);
+        Trace.end(Trace.COMMIT_READ, start, 0);
+        return cmt;
+    }
+
+    /** Read commit SHA1 from the store, or return null if it does not exist. */
+    private static Commit load(String sha1) {
+        return load(sha1, true);
+    }
+
+    /** Return the message of commit SHA1, read without its files and
+     *  without caching it. */
+    static String readMessage(String sha1) {
+        return load(sha1, false).message;
+    }
+
+    /** Read commit SHA1 from the store, with its files if WITHFILES, or
+     *  return null if it does not exist. */
+    private static Commit load(String sha1, boolean withFiles) {
+        long start = Trace.start();
+        byte[] contents = STORE.read(sha1);
+        if (contents == null) {
+            return null;
+        }
+        Commit cmt = decode(contents, withFiles);
+        cmt.id = sha1;
+        Trace.end(Trace.COMMIT_LOAD, start, contents.length);
+        return cmt;
+    }
+
+    /** Return a copy of this Commit whose parents and file contents have
+     *  been renamed by COMMITS and BLOBS (old ID -> new ID), for migration.
+     *  @author CuiYuxin
+     */
+    Commit remap(Map<String, String> commits, Map<String, String> blobs) {
+        Commit cmt = new Commit();
+        cmt.message = message;
+        cmt.timeStamp = timeStamp;
+        cmt.parent = parent.equals("") ? "" : commits.get(parent);
+        cmt.parent2 = parent2.equals("") ? "" : commits.get(parent2);
+        cmt.commmitMap = new HashMap<>();
+        for (Map.Entry<String, String> entry : commmitMap.entrySet()) {
+            cmt.commmitMap.put(entry.getKey(), blobs.get(entry.getValue()));
+        }
+        return cmt;
+    }
+
+    /** Return the full ID of the commit whose ID starts with PREFIX, or
+     *  null if there is none.
+     *  @author CuiYuxin
+     */
+    static String resolve(String prefix) {
+        if (prefix.length() < MIN_PREFIX || !prefix.matches("[0-9a-f]+")) {
             return null;
         }
-        return Utils.readObject(commitFile, Commit.class);
+        List<String> ids = STORE.findPrefix(prefix, 2);
+        if (ids.size() > 1) {
+            throw Utils.error("Commit id " + prefix + " is ambiguous.");
+        }
+        return ids.isEmpty() ? null : ids.get(0);
     }
 
     /** Return the commit log
@@ -135,44 +329,60 @@ public class Commit implements Serializable {
      */
     @Override
     public String toString() {
-        StringBuilder sb = new StringBuilder();
+        return log(id());
+    }
+
+    /** Return the log entry of this commit, whose ID is ID, so that the ID
+     *  need not be computed again.
+     *  @author CuiYuxin
+     */
+    String log(String cmtID) {
+        StringBuilder sb = new StringBuilder(128 + message.length());
         sb.append("===\n");
         // SHA1
-        sb.append("commit ").append(Utils.sha1(Utils.serialize(this))).append("\n");
+        sb.append("commit ").append(cmtID).append("\n");
         // Merge
         if (!parent2.equals("")) {
-            sb.append("Merge: ").append(parent.substring(0, 7)).append(" ");
-            sb.append(parent2.substring(0, 7)).append("\n");
+            sb.append("Merge: ").append(parent, 0, 7).append(" ");
+            sb.append(parent2, 0, 7).append("\n");
         }
         // TimeStamp
         sb.append("Date: ");
-        SimpleDateFormat format = new SimpleDateFormat("E MMM dd HH:mm:ss yyyy Z");
-        sb.append(format.format(timeStamp)).append("\n");
+        DATE_FORMAT.formatTo(timeStamp.toInstant().atZone(ZoneId.systemDefault()), sb);
+        sb.append("\n");
         // Message
         sb.append(message).append("\n");
         return sb.toString();
     }
 
-    /** Return the commit ID which has the given message
+    /** Return the one-line log entry of this commit, whose ID is ID: the
+     *  start of the ID and the first line of the message.
+     *  @author CuiYuxin
+     */
+    String oneline(String cmtID) {
+        int eol = message.indexOf('\n');
+        return cmtID.substring(0, 7) + " " + (eol < 0 ? message : message.substring(0, eol));
+    }
+
+    /** Return the IDs of the commits which have the given message.
      *  @author CuiYuxin
      */
     public static List<String> find(String message) {
-        List<String> commitID = new ArrayList<>();
-        List<String> commits = Utils.plainFilenamesIn(COMMIT_DIR);
-        for (String commit : commits) {
-            Commit cmt = read(commit);
-            if (cmt.message.equals(message)) {
-                commitID.add(Utils.sha1(Utils.serialize(cmt)));
-            }
-        }
-        return commitID;
+        return MessageIndex.find(message);
+    }
+
+    /** Return the IDs of the commits whose message contains PATTERN.
+     *  @author CuiYuxin
+     */
+    static List<String> grep(String pattern) {
+        return MessageIndex.grep(pattern);
     }
 
     /** Create new Blobs
      * @author CuiYuxin
      */
     public static Map<String, String> mergeBlobs(Stage stage, Commit oldCmt) {
-        Map<String, String> map = oldCmt.getBlobs();
+        Map<String, String> map = new HashMap<>(oldCmt.getBlobs());
         for (String rm : stage.getRemoveFile()) {
             map.remove(rm);
         }
@@ -183,16 +393,31 @@ public class Commit implements Serializable {
         return map;
     }
 
-    /** Return all commit log
+    /** Write the log entry of every commit to OUT, each followed by a
+     *  blank line. Commits are read and formatted in parallel, LOG_BATCH at
+     *  a time and without going through the cache, and written in the
+     *  order of their IDs, so memory use does not grow with the number of
+     *  commits.
      * @author CuiYuxin
      */
-    public static List<String> getCommitLog() {
-        List<String> commits = Utils.plainFilenamesIn(COMMIT_DIR);
-        List<String> commitLog = new ArrayList<>();
-        for (String commit : commits) {
-            Commit cmt = read(commit);
-            commitLog.add(cmt.toString());
+    public static void writeGlobalLog(Writer out) throws IOException {
+        List<String> batch = new ArrayList<>(LOG_BATCH);
+        for (String commit : STORE) {
+            batch.add(commit);
+            if (batch.size() == LOG_BATCH) {
+                writeLogs(batch, out);
+                batch.clear();
+            }
+        }
+        writeLogs(batch, out);
+    }
+
+    /** Write the log entries of the commits IDS to OUT, in order. */
+    private static void writeLogs(List<String> ids, Writer out) throws IOException {
+        String[] logs = ids.parallelStream().map(id -> load(id, false).log(id)).toArray(String[]::new);
+        for (String log : logs) {
+            out.write(log);
+            out.write('\n');
         }
-        return commitLog;
     }
 }
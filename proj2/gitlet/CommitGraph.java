@@ -0,0 +1,244 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import static gitlet.Utils.join;
+
+/**
+ * Represents the commit graph: every commit reachable from a branch, given
+ * a dense integer ID, with the IDs of its parents, its generation number
+ * (one more than the largest generation of its parents) and its timestamp.
+ * The file is append-only: commits are added after their parents, so each
+ * record only refers to earlier ones. Commits missing from the file are
+ * read and appended when the graph is loaded for a query.
+ * @author CuiYuxin
+ */
+class CommitGraph {
+    /** The commit graph file. */
+    static final File GRAPH_FILE = join(Repository.GITLET_DIR, "commit-graph");
+    /** Magic number at the head of the file. */
+    private static final int MAGIC = 0x47434731; // "GCG1"
+    /** Size of a raw SHA1. */
+    private static final int SHA_BYTES = Utils.UID_LENGTH / 2;
+    /** Size of one record: SHA1, two parents, generation, timestamp. */
+    private static final int RECORD = SHA_BYTES + 4 + 4 + 4 + 8;
+    /** Marks a missing parent. */
+    private static final int NONE = -1;
+    /** Flags used while searching for merge bases. */
+    private static final int PARENT1 = 1, PARENT2 = 2, STALE = 4, RESULT = 8;
+
+    /** The number of commits. */
+    private int size;
+    /** The SHA1 of each commit. */
+    private String[] ids = new String[16];
+    /** The first parent of each commit, or NONE. */
+    private int[] parent1 = new int[16];
+    /** The second parent of each commit, or NONE. */
+    private int[] parent2 = new int[16];
+    /** The generation number of each commit. */
+    private int[] generation = new int[16];
+    /** The timestamp of each commit. */
+    private long[] time = new long[16];
+    /** The dense ID of each commit. Key: SHA1 */
+    private final Map<String, Integer> positions = new HashMap<>();
+    /** Whether the file must be rewritten rather than appended to. */
+    private boolean rewrite = true;
+
+    /**
+     * Load the commit graph, first adding any commits reachable from the
+     * given commits TIPS that it does not yet hold.
+     * @author CuiYuxin
+     */
+    static CommitGraph load(String... tips) {
+        CommitGraph graph = new CommitGraph();
+        graph.readFile();
+        List<String> added = new ArrayList<>();
+        for (String tip : tips) {
+            graph.addAll(tip, added);
+        }
+        graph.appendFile(added);
+        return graph;
+    }
+
+    /**
+     * Return the latest common ancestor of commits A and B, considering
+     * both parents of merge commits, or "" if they have none.
+     * @author CuiYuxin
+     */
+    String mergeBase(String a, String b) {
+        int x = positions.get(a);
+        int y = positions.get(b);
+        if (x == y) {
+            return a;
+        }
+        int[] flags = new int[size];
+        PriorityQueue<Integer> queue = new PriorityQueue<>((i, j) -> {
+            if (generation[i] != generation[j]) {
+                return Integer.compare(generation[j], generation[i]);
+            }
+            return Long.compare(time[j], time[i]);
+        });
+        flags[x] |= PARENT1;
+        flags[y] |= PARENT2;
+        // The search ends once every commit queued is STALE. QUEUED counts
+        // the copies of each commit in the queue, and ACTIVE the copies of
+        // commits not yet STALE, so that is known without scanning it.
+        int[] queued = new int[size];
+        queue.add(x);
+        queue.add(y);
+        queued[x] += 1;
+        queued[y] += 1;
+        int active = 2;
+        int best = NONE;
+        while (active > 0) {
+            int c = queue.poll();
+            queued[c] -= 1;
+            if ((flags[c] & STALE) == 0) {
+                active -= 1;
+            }
+            int f = flags[c] & (PARENT1 | PARENT2 | STALE);
+            if (f == (PARENT1 | PARENT2)) {
+                if ((flags[c] & RESULT) == 0) {
+                    flags[c] |= RESULT;
+                    if (best == NONE) {
+                        best = c;
+                    }
+                }
+                f |= STALE;
+            }
+            for (int p : new int[] {parent1[c], parent2[c]}) {
+                if (p != NONE && (flags[p] & f) != f) {
+                    if ((flags[p] & STALE) == 0 && (f & STALE) != 0) {
+                        active -= queued[p];
+                    }
+                    flags[p] |= f;
+                    queue.add(p);
+                    queued[p] += 1;
+                    if ((flags[p] & STALE) == 0) {
+                        active += 1;
+                    }
+                }
+            }
+        }
+        return best == NONE ? "" : ids[best];
+    }
+
+    /** Add commit TIP and its missing ancestors, parents first, recording
+     *  the new SHA1s in ADDED. */
+    private void addAll(String tip, List<String> added) {
+        Deque<String> stack = new ArrayDeque<>();
+        Map<String, Commit> read = new HashMap<>();
+        stack.push(tip);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (positions.containsKey(id)) {
+                stack.pop();
+                continue;
+            }
+            Commit cmt = read.computeIfAbsent(id, Commit::read);
+            boolean ready = true;
+            for (String p : new String[] {cmt.getParent(), cmt.getParent2()}) {
+                if (!p.equals("") && !positions.containsKey(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                int p1 = position(cmt.getParent());
+                int p2 = position(cmt.getParent2());
+                int gen = 1;
+                if (p1 != NONE) {
+                    gen = Math.max(gen, generation[p1] + 1);
+                }
+                if (p2 != NONE) {
+                    gen = Math.max(gen, generation[p2] + 1);
+                }
+                add(id, p1, p2, gen, cmt.getTimeStamp().getTime());
+                read.remove(id);
+                added.add(id);
+            }
+        }
+    }
+
+    /** Return the dense ID of commit ID, or NONE if ID is "". */
+    private int position(String id) {
+        return id.equals("") ? NONE : positions.get(id);
+    }
+
+    /** Add a commit to the in-memory graph. */
+    private void add(String id, int p1, int p2, int gen, long timestamp) {
+        if (size == ids.length) {
+            int n = size * 2;
+            ids = Arrays.copyOf(ids, n);
+            parent1 = Arrays.copyOf(parent1, n);
+            parent2 = Arrays.copyOf(parent2, n);
+            generation = Arrays.copyOf(generation, n);
+            time = Arrays.copyOf(time, n);
+        }
+        ids[size] = id;
+        parent1[size] = p1;
+        parent2[size] = p2;
+        generation[size] = gen;
+        time[size] = timestamp;
+        positions.put(id, size);
+        size += 1;
+    }
+
+    /** Read the commit graph file, if there is one. */
+    private void readFile() {
+        if (!GRAPH_FILE.exists()) {
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(GRAPH_FILE));
+        if (buf.remaining() < 4 || buf.getInt() != MAGIC) {
+            return; // unreadable: rebuilt from the commits
+        }
+        byte[] raw = new byte[SHA_BYTES];
+        while (buf.remaining() >= RECORD) {
+            buf.get(raw);
+            add(Utils.toHex(raw), buf.getInt(), buf.getInt(), buf.getInt(), buf.getLong());
+        }
+        // A torn final record means the next write must start over.
+        rewrite = buf.hasRemaining();
+    }
+
+    /** Append the commits ADDED to the commit graph file. */
+    private void appendFile(List<String> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(GRAPH_FILE, !rewrite)))) {
+            List<String> toWrite = added;
+            if (rewrite) {
+                out.writeInt(MAGIC);
+                toWrite = Arrays.asList(ids).subList(0, size);
+            }
+            for (String id : toWrite) {
+                int i = positions.get(id);
+                out.write(Utils.fromHex(id));
+                out.writeInt(parent1[i]);
+                out.writeInt(parent2[i]);
+                out.writeInt(generation[i]);
+                out.writeLong(time[i]);
+            }
+            rewrite = false;
+        } catch (IOException e) {
+            GRAPH_FILE.delete(); // only a cache: rebuilt on the next load
+        }
+    }
+}
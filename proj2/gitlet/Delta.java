@@ -0,0 +1,190 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Binary deltas between two versions of a file. A delta is a sequence of
+ * instructions, each a varint N followed by its operands: if N is even,
+ * N / 2 literal bytes follow and are inserted; if N is odd, (N - 1) / 2
+ * bytes are copied from the base starting at the offset given by the
+ * varint that follows. Deltas are found by indexing the base in blocks
+ * of BLOCK bytes and looking up a rolling hash of every BLOCK-byte window
+ * of the target, extending each match as far as it goes.
+ * @author CuiYuxin
+ */
+class Delta {
+    /** The length of the blocks the base is indexed in. */
+    private static final int BLOCK = 16;
+    /** The multiplier of the rolling hash. */
+    private static final int PRIME = 0x01000193;
+    /** PRIME to the power BLOCK, for removing the oldest byte from a hash. */
+    private static final int PRIME_POW = pow(PRIME, BLOCK);
+
+    /**
+     * Return a delta that turns BASE into TARGET, or null if it would be
+     * larger than LIMIT bytes.
+     * @author CuiYuxin
+     */
+    static byte[] create(byte[] base, byte[] target, int limit) {
+        int[] table = index(base);
+        int mask = table.length - 1;
+        Out out = new Out(limit);
+        int pending = 0; // start of the literal bytes not yet emitted
+        int i = 0;
+        int h = target.length >= BLOCK ? hash(target, 0) : 0;
+        while (i + BLOCK <= target.length) {
+            int candidate = table[h & mask] - 1;
+            if (candidate >= 0 && Arrays.equals(base, candidate, candidate + BLOCK,
+                    target, i, i + BLOCK)) {
+                int start = candidate;
+                int from = i;
+                while (from > pending && start > 0 && base[start - 1] == target[from - 1]) {
+                    start -= 1;
+                    from -= 1;
+                }
+                int end = i + BLOCK;
+                int baseEnd = candidate + BLOCK;
+                while (end < target.length && baseEnd < base.length
+                        && base[baseEnd] == target[end]) {
+                    end += 1;
+                    baseEnd += 1;
+                }
+                if (!out.insert(target, pending, from) || !out.copy(start, end - from)) {
+                    return null;
+                }
+                pending = end;
+                i = end;
+                if (i + BLOCK <= target.length) {
+                    h = hash(target, i);
+                }
+                continue;
+            }
+            if (i + BLOCK < target.length) {
+                h = h * PRIME - target[i] * PRIME_POW + target[i + BLOCK];
+            }
+            i += 1;
+        }
+        if (!out.insert(target, pending, target.length)) {
+            return null;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Return the SIZE bytes produced by applying DELTA to BASE.
+     * @author CuiYuxin
+     */
+    static byte[] apply(byte[] base, byte[] delta, int size) {
+        byte[] result = new byte[size];
+        int[] pos = {0};
+        int len = 0;
+        while (pos[0] < delta.length) {
+            long n = varint(delta, pos);
+            int count = (int) (n >>> 1);
+            int src;
+            byte[] from;
+            if ((n & 1) == 0) {
+                from = delta;
+                src = pos[0];
+                pos[0] += count;
+            } else {
+                from = base;
+                src = (int) varint(delta, pos);
+            }
+            if (count > size - len || src < 0 || count > from.length - src) {
+                throw Utils.error("Corrupt delta.");
+            }
+            System.arraycopy(from, src, result, len, count);
+            len += count;
+        }
+        if (len != size) {
+            throw Utils.error("Corrupt delta.");
+        }
+        return result;
+    }
+
+    /** Return a hash table of the blocks of BASE: slot (hash & mask) holds
+     *  one plus the offset of the last block with that hash, or 0. */
+    private static int[] index(byte[] base) {
+        int blocks = base.length / BLOCK;
+        int[] table = new int[Integer.highestOneBit(Math.max(blocks, 1) * 2 - 1) * 2];
+        int mask = table.length - 1;
+        for (int b = 0; b < blocks; b += 1) {
+            table[hash(base, b * BLOCK) & mask] = b * BLOCK + 1;
+        }
+        return table;
+    }
+
+    /** Return the hash of the BLOCK bytes of DATA starting at START. */
+    private static int hash(byte[] data, int start) {
+        int h = 0;
+        for (int k = start; k < start + BLOCK; k += 1) {
+            h = h * PRIME + data[k];
+        }
+        return h;
+    }
+
+    /** Return X to the power N, modulo 2^32. */
+    private static int pow(int x, int n) {
+        int r = 1;
+        for (int k = 0; k < n; k += 1) {
+            r *= x;
+        }
+        return r;
+    }
+
+    /** Read a varint from BUF at POS[0], advancing it. */
+    private static long varint(byte[] buf, int[] pos) {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (pos[0] >= buf.length) {
+                break;
+            }
+            int b = buf[pos[0]++];
+            n |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw Utils.error("Corrupt delta.");
+    }
+
+    /** The instructions of a delta being built, up to a size limit. */
+    private static class Out extends ByteArrayOutputStream {
+        /** The most bytes the delta may take. */
+        private final int limit;
+
+        Out(int limit) {
+            super(Math.min(limit, 1 << 16));
+            this.limit = limit;
+        }
+
+        /** Add an instruction inserting DATA[FROM .. TO), if not empty.
+         *  Return false if the delta has grown past the limit. */
+        boolean insert(byte[] data, int from, int to) {
+            if (from < to) {
+                varint((long) (to - from) << 1);
+                write(data, from, to - from);
+            }
+            return count <= limit;
+        }
+
+        /** Add an instruction copying LEN bytes of the base from OFFSET.
+         *  Return false if the delta has grown past the limit. */
+        boolean copy(int offset, int len) {
+            varint((long) len << 1 | 1);
+            varint(offset);
+            return count <= limit;
+        }
+
+        /** Write the non-negative number N. */
+        private void varint(long n) {
+            while ((n & ~0x7fL) != 0) {
+                write((int) ((n & 0x7f) | 0x80));
+                n >>>= 7;
+            }
+            write((int) n);
+        }
+    }
+}
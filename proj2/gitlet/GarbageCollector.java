@@ -0,0 +1,204 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.join;
+
+/**
+ * Implements gc: every blob small enough to be a delta, other than lists
+ * of chunks, is stored again, either whole or as a delta against one of
+ * the WINDOW blobs before it when blobs are sorted by the path they were
+ * committed under and then by decreasing size, so that versions of one
+ * file end up next to each other and the bigger, usually newer, versions
+ * become the bases. Every
+ * such blob is rewritten and may only use a blob rewritten before it as
+ * its base, so no cycle of deltas can form. The stores are then repacked.
+ * Only one gc runs at a time, guarded by a lock file, and commit starts
+ * one in the background once enough loose blobs have piled up.
+ * @author CuiYuxin
+ */
+class GarbageCollector {
+    /** The lock file held while gc runs. */
+    static final File LOCK_FILE = join(Repository.GITLET_DIR, "gc.lock");
+    /** The number of preceding blobs tried as delta bases. */
+    private static final int WINDOW = 10;
+    /** The most bytes of blobs kept in the window. */
+    private static final long WINDOW_BYTES = 256 << 20;
+    /** The estimated number of loose blobs that makes commit start a gc;
+     *  GITLET_AUTO_GC overrides it, 0 turns automatic gc off. */
+    private static final int AUTO_LIMIT = autoLimit();
+
+    /** A blob to be rewritten. */
+    private static class Candidate {
+        /** The ID of the blob. */
+        private final String id;
+        /** The path it was first seen committed under, or "". */
+        private final String path;
+        /** The length of its contents. */
+        private final long size;
+
+        Candidate(String id, String path, long size) {
+            this.id = id;
+            this.path = path;
+            this.size = size;
+        }
+    }
+
+    /** A rewritten blob that may serve as a base. */
+    private static class Base {
+        /** The ID of the blob. */
+        private final String id;
+        /** Its contents. */
+        private final byte[] contents;
+        /** Its delta depth as rewritten. */
+        private final int depth;
+
+        Base(String id, byte[] contents, int depth) {
+            this.id = id;
+            this.contents = contents;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Rewrite the blobs with newly chosen delta bases and repack the stores.
+     * Print how many blobs became deltas unless QUIET. Does nothing if
+     * another gc is running.
+     * @author CuiYuxin
+     */
+    static void run(boolean quiet) {
+        try {
+            if (!LOCK_FILE.createNewFile()) {
+                if (!quiet) {
+                    System.out.println("Another gc is already running.");
+                }
+                return;
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+        try {
+            int deltas = Blob.MAX_DEPTH > 0 ? rewrite() : 0;
+            Blob.STORE.repack();
+            Commit.STORE.repack();
+            Tree.STORE.repack();
+            if (!quiet) {
+                System.out.println("Stored " + deltas + " blobs as deltas.");
+            }
+        } finally {
+            LOCK_FILE.delete();
+        }
+    }
+
+    /** Rewrite every blob small enough to be a delta, and return how many
+     *  were stored as deltas. */
+    private static int rewrite() {
+        Map<String, String> paths = new HashMap<>();
+        Set<String> trees = new HashSet<>();
+        for (String cmt : Commit.STORE) {
+            Commit.read(cmt).forEachFile(trees, (path, blob) -> paths.putIfAbsent(blob, path));
+        }
+        List<Candidate> candidates = new ArrayList<>();
+        for (String id : Blob.STORE) {
+            long size = Blob.size(id);
+            if (size < 0 || size > Blob.MAX_DELTA_SIZE || Blob.isChunked(id)) {
+                continue; // never a delta nor a base: left as it is
+            }
+            candidates.add(new Candidate(id, paths.getOrDefault(id, ""), size));
+        }
+        candidates.sort(Comparator.comparing((Candidate c) -> c.path)
+                .thenComparing(c -> -c.size).thenComparing(c -> c.id));
+        Deque<Base> window = new ArrayDeque<>();
+        long windowBytes = 0;
+        int deltas = 0;
+        for (Candidate c : candidates) {
+            byte[] contents = Blob.getBlob(c.id);
+            Base best = null;
+            byte[] bestDelta = null;
+            for (Base base : window) {
+                if (base.depth >= Blob.MAX_DEPTH) {
+                    continue;
+                }
+                byte[] delta = Blob.delta(base.contents, contents);
+                if (delta != null && (bestDelta == null || delta.length < bestDelta.length)) {
+                    best = base;
+                    bestDelta = delta;
+                }
+            }
+            int depth = 0;
+            if (best != null) {
+                depth = best.depth + 1;
+                Blob.writeDelta(c.id, contents.length, best.id, depth, bestDelta, true);
+                deltas += 1;
+            } else {
+                Blob.write(contents, true);
+            }
+            window.addFirst(new Base(c.id, contents, depth));
+            windowBytes += contents.length;
+            while (window.size() > WINDOW || windowBytes > WINDOW_BYTES) {
+                windowBytes -= window.removeLast().contents.length;
+            }
+        }
+        return deltas;
+    }
+
+    /**
+     * Start gc in a separate, background process if enough loose blobs
+     * have piled up and no gc is running.
+     * @author CuiYuxin
+     */
+    static void auto() {
+        if (AUTO_LIMIT == 0 || LOCK_FILE.exists()
+                || Blob.STORE.estimateLoose() < AUTO_LIMIT) {
+            return;
+        }
+        ProcessBuilder pb = new ProcessBuilder(gitletCommand());
+        pb.command().add("gc");
+        pb.command().add("--quiet");
+        pb.directory(Repository.CWD);
+        // Run in the child itself, not forwarded to a daemon, which would
+        // make every later command wait for the gc.
+        pb.environment().put("GITLET_DAEMON", "0");
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            pb.start();
+        } catch (IOException e) {
+            // gc is only an optimization: leave it for next time
+        }
+    }
+
+    /** Return the command that runs gitlet the way this process was run:
+     *  the executable itself in a native image, java otherwise. */
+    private static List<String> gitletCommand() {
+        List<String> command = new ArrayList<>();
+        if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            command.add(ProcessHandle.current().info().command().orElse("gitlet"));
+            return command;
+        }
+        command.add(join(new File(System.getProperty("java.home")), "bin", "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("gitlet.Main");
+        return command;
+    }
+
+    /** Return the loose blob count from GITLET_AUTO_GC, or 1000. */
+    private static int autoLimit() {
+        String value = System.getenv("GITLET_AUTO_GC");
+        if (value != null && value.matches("[0-9]{1,9}")) {
+            return Integer.parseInt(value);
+        }
+        return 1000;
+    }
+}
@@ -0,0 +1,229 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static gitlet.Utils.join;
+
+/**
+ * Represents the index: for each working file that has been hashed, its
+ * size, modification time and file key (inode) at that time together with
+ * the blob ID of its contents. A file whose stat data still matches its
+ * entry is not read again. Entries recorded within the timestamp
+ * granularity of the file's last modification are not trusted, since the
+ * file could have changed again within the same tick. Entries for files
+ * that are neither in the working directory nor in the current commit
+ * are dropped when the index is saved, and entries another process saved
+ * in the meantime are merged in rather than overwritten.
+ * @author CuiYuxin
+ */
+class Index {
+    /** The index file. */
+    static final File INDEX_FILE = join(Repository.GITLET_DIR, "index");
+    /** Modification times closer than this to the time an entry was
+     *  recorded are treated as possibly stale, in milliseconds. */
+    private static final long RACY_MILLIS = 2000;
+    /** The Codec tag of the index. */
+    private static final int TAG = 'i';
+    /** The Codec format version of the index. */
+    private static final int VERSION = 1;
+    /** The index of this process, loaded on first use. */
+    private static Index index;
+
+    /** The entries. Key: filename */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /** Whether the entries changed since they were read. */
+    private volatile boolean dirty;
+    /** The modification time of the index file when it was last read or
+     *  written by this process, 0 if there was none. */
+    private long stamp;
+
+    /** The stat data and blob ID of one file. */
+    private static class Entry {
+        /** The size of the file. */
+        private final long size;
+        /** The modification time of the file, in milliseconds. */
+        private final long mtime;
+        /** The file key (device and inode) of the file, if known. */
+        private final String key;
+        /** When this entry was recorded, in milliseconds. */
+        private final long recorded;
+        /** The blob ID of the contents. */
+        private final String blobID;
+
+        Entry(BasicFileAttributes attrs, String blobID) {
+            this.size = attrs.size();
+            this.mtime = attrs.lastModifiedTime().toMillis();
+            this.key = Objects.toString(attrs.fileKey(), null);
+            this.recorded = System.currentTimeMillis();
+            this.blobID = blobID;
+        }
+
+        Entry(Codec.Reader r) {
+            this.size = r.varint();
+            this.mtime = r.varint();
+            String k = r.string();
+            this.key = k.isEmpty() ? null : k;
+            this.recorded = r.varint();
+            this.blobID = r.id();
+        }
+
+        /** Write this entry to W. */
+        void encode(Codec.Writer w) {
+            w.varint(size).varint(mtime).string(key == null ? "" : key);
+            w.varint(recorded).id(blobID);
+        }
+
+        /** Return whether a file with ATTRS still matches this entry. */
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                    && mtime == attrs.lastModifiedTime().toMillis()
+                    && Objects.equals(key, Objects.toString(attrs.fileKey(), null))
+                    && mtime + RACY_MILLIS < recorded;
+        }
+    }
+
+    /**
+     * Return the index of this repository.
+     * @author CuiYuxin
+     */
+    static synchronized Index get() {
+        if (index == null) {
+            index = new Index();
+            index.merge();
+        }
+        return index;
+    }
+
+    /**
+     * Merge in the entries another process saved since the index was
+     * last read or written, if it was loaded.
+     * @author CuiYuxin
+     */
+    static synchronized void refresh() {
+        if (index != null) {
+            index.merge();
+        }
+    }
+
+    /**
+     * Write the index to disk if it was loaded and has changed, first
+     * merging in the entries saved by other processes and dropping those
+     * of files that are neither in the working directory nor tracked by
+     * the current commit of REPO.
+     * @author CuiYuxin
+     */
+    static synchronized void save(Repository repo) {
+        if (index != null && index.dirty && Repository.GITLET_DIR.isDirectory()) {
+            index.merge();
+            Set<String> tracked = repo.trackedFiles();
+            Iterator<Map.Entry<String, Entry>> it = index.entries.entrySet().iterator();
+            while (it.hasNext()) {
+                String path = it.next().getKey();
+                if (!tracked.contains(path) && !new File(path).isFile()) {
+                    it.remove();
+                }
+            }
+            Codec.Writer w = new Codec.Writer(TAG, VERSION);
+            w.varint(index.entries.size());
+            for (Map.Entry<String, Entry> e : index.entries.entrySet()) {
+                w.string(e.getKey());
+                e.getValue().encode(w);
+            }
+            Utils.writeContentsAtomically(INDEX_FILE, w.toByteArray());
+            index.stamp = INDEX_FILE.lastModified();
+            index.dirty = false;
+        }
+    }
+
+    /** Read the entries of the index file if it changed since it was last
+     *  read or written, keeping for each file the more recent entry. */
+    private void merge() {
+        long mtime = INDEX_FILE.lastModified();
+        if (mtime == stamp || mtime == 0) {
+            stamp = mtime;
+            return;
+        }
+        Codec.Reader r = new Codec.Reader(Utils.readContents(INDEX_FILE), TAG, VERSION);
+        for (long n = r.varint(); n > 0; n -= 1) {
+            String path = r.string();
+            Entry entry = new Entry(r);
+            entries.merge(path, entry, (mine, theirs) ->
+                    theirs.recorded > mine.recorded ? theirs : mine);
+        }
+        stamp = mtime;
+    }
+
+    /**
+     * Return the blob ID of the contents of FILE, hashing it only if it
+     * changed since it was last hashed.
+     * @author CuiYuxin
+     */
+    String hash(File file) {
+        return hash(file, stat(file));
+    }
+
+    /**
+     * Return the blob ID of the contents of FILE, whose stat data ATTRS
+     * has just been read, hashing it only if it changed since it was last
+     * hashed.
+     * @author CuiYuxin
+     */
+    String hash(File file, BasicFileAttributes attrs) {
+        Entry entry = entries.get(file.getPath());
+        if (entry != null && entry.matches(attrs)) {
+            return entry.blobID;
+        }
+        return record(file, attrs, Blob.hash(file));
+    }
+
+    /**
+     * Return whether FILE, whose stat data ATTRS has just been read, is
+     * known to hold blob BLOBID without reading it: its entry matches
+     * ATTRS and names BLOBID. ATTRS is null if there is no such file.
+     * @author CuiYuxin
+     */
+    boolean known(File file, BasicFileAttributes attrs, String blobID) {
+        Entry entry = entries.get(file.getPath());
+        return attrs != null && attrs.isRegularFile() && entry != null
+                && entry.matches(attrs) && entry.blobID.equals(blobID);
+    }
+
+    /**
+     * Store the contents of FILE as a blob, unless the index shows they
+     * are already stored, and return its ID. BASEID is the blob holding the
+     * previous version of the file, or "".
+     * @author CuiYuxin
+     */
+    String write(File file, String baseID) {
+        BasicFileAttributes attrs = stat(file);
+        Entry entry = entries.get(file.getPath());
+        if (entry != null && entry.matches(attrs) && Blob.STORE.contains(entry.blobID)) {
+            return entry.blobID;
+        }
+        return record(file, attrs, Blob.write(file, baseID));
+    }
+
+    /** Record that FILE, which had ATTRS before it was read, holds BLOBID. */
+    private String record(File file, BasicFileAttributes attrs, String blobID) {
+        entries.put(file.getPath(), new Entry(attrs, blobID));
+        dirty = true;
+        return blobID;
+    }
+
+    /** Return the stat data of FILE. */
+    private static BasicFileAttributes stat(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+}
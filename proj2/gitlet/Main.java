@@ -1,5 +1,14 @@
 package gitlet;
 
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
 /** Driver class for Gitlet, a subset of the Git version-control system.
  *  @author CuiYuxin
  */
@@ -7,11 +16,42 @@ public class Main {
 
     /** Usage: java gitlet.Main ARGS, where ARGS contains
      *  <COMMAND> <OPERAND1> <OPERAND2> ... 
+     *  Commands are handed to the daemon of the repository if one is
+     *  running (see Server), and run in this process otherwise.
      */
     public static void main(String[] args) {
+        boolean startDaemon = args.length == 1 && args[0].equals("daemon");
+        if (!startDaemon && Client.forward(args)) {
+            return;
+        }
+        run(args);
+    }
+
+    /**
+     * Run the command ARGS, printing its output and any error message to
+     * System.out.
+     * @author CuiYuxin
+     */
+    static void run(String[] args) {
+        args = Trace.begin(args);
+        long start = Trace.start();
+        try {
+            execute(args);
+        } catch (GitletException e) {
+            if (e.getMessage() != null) {
+                System.out.println(e.getMessage());
+            }
+        } finally {
+            Trace.end(Trace.COMMAND, start, 0);
+            Trace.report(args);
+        }
+    }
+
+    /** Run the command ARGS, throwing a GitletException to stop it with
+     *  an error message. */
+    private static void execute(String[] args) {
         if (args.length == 0) {
-            System.out.print("Please enter a command.\n");
-            System.exit(0);
+            throw Utils.error("Please enter a command.");
         }
         String firstArg = args[0];
         Repository repo = new Repository();
@@ -21,8 +61,8 @@ public class Main {
                 repo.initGitlet();
                 break;
             case "add":
-                validateNumArgs(args, 2);
-                repo.add(args[1]);
+                validateNumArgs(args, Math.max(args.length, 2));
+                repo.add(Arrays.copyOfRange(args, 1, args.length));
                 break;
             case "commit":
                 validateNumArgs(args, 2);
@@ -33,16 +73,21 @@ public class Main {
                 repo.rm(args[1]);
                 break;
             case "log":
-                validateNumArgs(args, 1);
-                repo.log();
+                validateNumArgs(args, args.length);
+                log(repo, args);
                 break;
             case "global-log":
                 validateNumArgs(args, 1);
                 repo.globalLog();
                 break;
             case "find":
-                validateNumArgs(args, 2);
-                repo.find(args[1]);
+                if (args.length == 3 && args[1].equals("--grep")) {
+                    validateNumArgs(args, 3);
+                    repo.grep(args[2]);
+                } else {
+                    validateNumArgs(args, 2);
+                    repo.find(args[1]);
+                }
                 break;
             case "status":
                 validateNumArgs(args, 1);
@@ -74,9 +119,94 @@ public class Main {
                 validateNumArgs(args, 2);
                 repo.merge(args[1]);
                 break;
+            case "repack":
+                validateNumArgs(args, 1);
+                repo.repack();
+                break;
+            case "gc":
+                validateNumArgs(args, args.length == 2 && args[1].equals("--quiet") ? 2 : 1);
+                repo.gc(args.length == 2);
+                break;
+            case "migrate":
+                validateNumArgs(args, 1);
+                repo.migrate();
+                break;
+            case "daemon":
+                validateNumArgs(args, args.length == 2 && args[1].equals("--stop") ? 2 : 1);
+                if (args.length == 2) {
+                    Server.stop();
+                } else {
+                    Server.serve();
+                }
+                break;
             default:
-                System.out.print("No command with that name exists.\n");
-                System.exit(0);
+                throw Utils.error("No command with that name exists.");
+        }
+        Index.save(repo);
+    }
+
+    /** Run log with the options in ARGS: -n N (or -N), --since DATE,
+     *  --until DATE and --oneline. */
+    private static void log(Repository repo, String[] args) {
+        int limit = Integer.MAX_VALUE;
+        long since = Long.MIN_VALUE;
+        long until = Long.MAX_VALUE;
+        boolean oneline = false;
+        for (int i = 1; i < args.length; i += 1) {
+            String arg = args[i];
+            if (arg.equals("--oneline")) {
+                oneline = true;
+            } else if (arg.equals("-n") && i + 1 < args.length) {
+                i += 1;
+                limit = count(args[i]);
+            } else if (arg.matches("-[0-9]+")) {
+                limit = count(arg.substring(1));
+            } else if (arg.startsWith("--max-count=")) {
+                limit = count(arg.substring("--max-count=".length()));
+            } else if ((arg.equals("--since") || arg.equals("--until")) && i + 1 < args.length) {
+                i += 1;
+                if (arg.equals("--since")) {
+                    since = date(args[i]);
+                } else {
+                    until = date(args[i]);
+                }
+            } else if (arg.startsWith("--since=")) {
+                since = date(arg.substring("--since=".length()));
+            } else if (arg.startsWith("--until=")) {
+                until = date(arg.substring("--until=".length()));
+            } else {
+                throw Utils.error("Incorrect operands.");
+            }
+        }
+        repo.log(limit, since, until, oneline);
+    }
+
+    /** Return the count in ARG. */
+    private static int count(String arg) {
+        if (!arg.matches("[0-9]{1,9}")) {
+            throw Utils.error("Incorrect operands.");
+        }
+        return Integer.parseInt(arg);
+    }
+
+    /** Return the time ARG stands for, in milliseconds since the epoch:
+     *  a date (2021-06-30), a local date and time (2021-06-30 12:00:00 or
+     *  2021-06-30T12:00), or a time relative to now (3 days ago). */
+    private static long date(String arg) {
+        Matcher ago = Pattern.compile("([0-9]+)[ .]?(second|minute|hour|day|week)s?[ .]ago")
+                .matcher(arg.trim());
+        if (ago.matches()) {
+            ChronoUnit unit = ChronoUnit.valueOf(ago.group(2).toUpperCase() + "S");
+            return System.currentTimeMillis()
+                    - unit.getDuration().toMillis() * Long.parseLong(ago.group(1));
+        }
+        try {
+            String text = arg.trim().replace(' ', 'T');
+            LocalDateTime time = text.contains("T") ? LocalDateTime.parse(text)
+                    : LocalDate.parse(text).atStartOfDay();
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw Utils.error("Invalid date: %s.", arg);
         }
     }
 
@@ -89,31 +219,31 @@ public class Main {
      */
     public static void validateNumArgs(String[] args, int n) {
         if (!args[0].equals("init") && !Repository.isRepo()) {
-            System.out.print("Not in an initialized Gitlet directory.\n");
-            System.exit(0);
+            throw Utils.error("Not in an initialized Gitlet directory.");
+        }
+        if (!args[0].equals("init") && !args[0].equals("migrate")
+                && Repository.format() < Repository.FORMAT) {
+            throw Utils.error("This repository was written by an older version of Gitlet; "
+                    + "run 'java gitlet.Main migrate' first.");
         }
         if (args[0].equals("checkout")) {
             if (args.length == 2) {
                 return;
             } else if (args.length == 3) {
                 if (!args[1].equals("--")) {
-                    System.out.print("Incorrect operands.\n");
-                    System.exit(0);
+                    throw Utils.error("Incorrect operands.");
                 }
             } else if (args.length == 4) {
                 if (!args[2].equals("--")) {
-                    System.out.print("Incorrect operands.\n");
-                    System.exit(0);
+                    throw Utils.error("Incorrect operands.");
                 }
             } else {
-                System.out.print("Incorrect operands.\n");
-                System.exit(0);
+                throw Utils.error("Incorrect operands.");
             }
             return;
         }
         if (args.length != n) {
-            System.out.print("Incorrect operands.\n");
-            System.exit(0);
+            throw Utils.error("Incorrect operands.");
         }
     }
 }
@@ -0,0 +1,406 @@
+package gitlet;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.ObjIntConsumer;
+
+import static gitlet.Utils.join;
+
+/**
+ * Represents the message index: the message of every commit, under a dense
+ * ordinal, with posting lists that map the hash of a whole message, and the
+ * hash of each three-character substring of a message, to the ordinals of
+ * the commits that have it. A whole message is hashed to 64 bits of its
+ * SHA1, kept with each posting, so that an exact search only checks the
+ * messages that really have the same hash. Commit.write appends the message of each new
+ * commit to the log; the posting lists are brought up to date by the next
+ * search, which then only reads the buckets the message or pattern hashes
+ * to and checks the messages they point at. The index is only a cache: if
+ * it is missing or damaged it is rebuilt from the commits.
+ *
+ * .gitlet/messages/log      records: raw SHA1, message length, UTF-8 message
+ * .gitlet/messages/offsets  the offset of each record in the log, as a long
+ * .gitlet/messages/posted   the posting list format, and the number of
+ *                           records in the posting lists, as ints
+ * .gitlet/messages/exact/xx   hashes of messages, as longs, each followed
+ *                             by an ordinal, as an int, by the top byte of
+ *                             the hash
+ * .gitlet/messages/grams/xxx  ordinals, as ints, by hash of a substring
+ * @author CuiYuxin
+ */
+class MessageIndex {
+    /** The message index directory. */
+    static final File INDEX_DIR = join(Repository.GITLET_DIR, "messages");
+    /** The messages, in the order the commits were written. */
+    private static final File LOG_FILE = join(INDEX_DIR, "log");
+    /** The offset of each message in the log. */
+    private static final File OFFSETS_FILE = join(INDEX_DIR, "offsets");
+    /** The number of messages in the posting lists. */
+    private static final File POSTED_FILE = join(INDEX_DIR, "posted");
+    /** The posting lists of whole messages. */
+    private static final File EXACT_DIR = join(INDEX_DIR, "exact");
+    /** The posting lists of substrings. */
+    private static final File GRAMS_DIR = join(INDEX_DIR, "grams");
+    /** The format of the posting lists. */
+    private static final int FORMAT = 2;
+    /** The number of bits of the hash of a whole message that pick its
+     *  posting list. */
+    private static final int EXACT_BITS = 8;
+    /** The size of a posting of a whole message: hash and ordinal. */
+    private static final int EXACT_POSTING = Long.BYTES + Integer.BYTES;
+    /** The number of bits of the hash of a substring kept. */
+    private static final int GRAM_BITS = 10;
+    /** The length of the indexed substrings. Shorter patterns are
+     *  searched for in every message. */
+    private static final int GRAM = 3;
+    /** Size of a raw SHA1. */
+    private static final int SHA_BYTES = Utils.UID_LENGTH / 2;
+
+    /**
+     * Create an empty message index, for a new repository.
+     * @author CuiYuxin
+     */
+    static void create() {
+        INDEX_DIR.mkdir();
+        EXACT_DIR.mkdir();
+        GRAMS_DIR.mkdir();
+        Utils.writeContents(LOG_FILE, new byte[0]);
+        Utils.writeContents(OFFSETS_FILE, new byte[0]);
+    }
+
+    /**
+     * Record that commit ID, with message MESSAGE, has been written. Does
+     * nothing if there is no index: the next search builds it whole.
+     * @author CuiYuxin
+     */
+    static void add(String id, String message) {
+        if (!LOG_FILE.exists()) {
+            return;
+        }
+        long offset = LOG_FILE.length();
+        try {
+            try (DataOutputStream log = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(LOG_FILE, true)))) {
+                writeRecord(log, id, message);
+            }
+            // The offset goes last: a torn record is never pointed at.
+            try (DataOutputStream offsets = new DataOutputStream(
+                    new FileOutputStream(OFFSETS_FILE, true))) {
+                offsets.writeLong(offset);
+            }
+        } catch (IOException e) {
+            delete();
+        }
+    }
+
+    /**
+     * Return the IDs of the commits whose message is MESSAGE, sorted.
+     * @author CuiYuxin
+     */
+    static List<String> find(String message) {
+        return search(message, false);
+    }
+
+    /**
+     * Return the IDs of the commits whose message contains PATTERN, sorted.
+     * @author CuiYuxin
+     */
+    static List<String> grep(String pattern) {
+        return search(pattern, true);
+    }
+
+    /**
+     * Delete the message index.
+     * @author CuiYuxin
+     */
+    static void delete() {
+        for (File dir : new File[] {EXACT_DIR, GRAMS_DIR, INDEX_DIR}) {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    /** Return the IDs of the commits whose message contains TEXT, if
+     *  SUBSTRING, or else is TEXT. */
+    private static List<String> search(String text, boolean substring) {
+        try {
+            int size = update();
+            BitSet candidates;
+            if (!substring) {
+                candidates = exactPostings(exactKey(text), size);
+            } else if (text.length() < GRAM) {
+                BitSet matches = new BitSet(size);
+                forEach(0, size, (message, i) -> {
+                    if (message.contains(text)) {
+                        matches.set(i);
+                    }
+                });
+                candidates = matches;
+            } else {
+                candidates = null;
+                BitSet grams = grams(text);
+                for (int g = grams.nextSetBit(0); g >= 0; g = grams.nextSetBit(g + 1)) {
+                    BitSet posting = postings(gramFile(g), size);
+                    if (candidates == null) {
+                        candidates = posting;
+                    } else {
+                        candidates.and(posting);
+                    }
+                }
+            }
+            return verify(candidates, text, substring);
+        } catch (IOException e) {
+            delete();
+            throw Utils.error("Cannot read the message index (rebuilt on the next search): %s",
+                    e.getMessage());
+        }
+    }
+
+    /** Return the IDs of the commits among the ordinals CANDIDATES whose
+     *  message contains TEXT, if SUBSTRING, or else is TEXT, sorted, so
+     *  that the order does not depend on how the index was built. */
+    private static List<String> verify(BitSet candidates, String text, boolean substring)
+            throws IOException {
+        List<String> ids = new ArrayList<>();
+        if (candidates.isEmpty()) {
+            return ids;
+        }
+        try (RandomAccessFile log = new RandomAccessFile(LOG_FILE, "r");
+             RandomAccessFile offsets = new RandomAccessFile(OFFSETS_FILE, "r")) {
+            byte[] raw = new byte[SHA_BYTES];
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                offsets.seek((long) i * Long.BYTES);
+                log.seek(offsets.readLong());
+                log.readFully(raw);
+                byte[] bytes = new byte[log.readInt()];
+                log.readFully(bytes);
+                String message = new String(bytes, StandardCharsets.UTF_8);
+                if (substring ? message.contains(text) : message.equals(text)) {
+                    ids.add(Utils.toHex(raw));
+                }
+            }
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    /** Bring the posting lists up to date with the log, building the whole
+     *  index first if it is missing or damaged, and return the number of
+     *  messages. */
+    private static int update() throws IOException {
+        int posted = 0;
+        boolean current = true;
+        if (POSTED_FILE.exists()) {
+            ByteBuffer header = ByteBuffer.wrap(Utils.readContents(POSTED_FILE));
+            current = header.remaining() == 2 * Integer.BYTES && header.getInt() == FORMAT;
+            posted = current ? header.getInt() : 0;
+        }
+        long length = OFFSETS_FILE.length();
+        if (!current || !LOG_FILE.exists() || length % Long.BYTES != 0
+                || length / Long.BYTES < posted) {
+            delete();
+            build();
+            posted = 0;
+            length = OFFSETS_FILE.length();
+        }
+        int size = (int) (length / Long.BYTES);
+        if (posted < size) {
+            post(posted, size);
+        }
+        return size;
+    }
+
+    /** Create the index and add the message of every commit to the log. */
+    private static void build() throws IOException {
+        create();
+        List<String> ids = new ArrayList<>();
+        Commit.STORE.forEach(ids::add);
+        try (DataOutputStream log = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(LOG_FILE)));
+             DataOutputStream offsets = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(OFFSETS_FILE)))) {
+            long offset = 0;
+            for (String id : ids) {
+                offsets.writeLong(offset);
+                offset += writeRecord(log, id, Commit.readMessage(id));
+            }
+        }
+    }
+
+    /** Add the messages FROM to TO to the posting lists. A crash part way
+     *  through leaves ordinals listed twice, which searches ignore. */
+    private static void post(int from, int to) throws IOException {
+        ByteArrayOutputStream[] exact = new ByteArrayOutputStream[1 << EXACT_BITS];
+        ByteArrayOutputStream[] grams = new ByteArrayOutputStream[1 << GRAM_BITS];
+        forEach(from, to, (message, i) -> {
+            long key = exactKey(message);
+            int b = exactBucket(key);
+            putLong(exact, b, key);
+            putInt(exact, b, i);
+            BitSet buckets = grams(message);
+            for (int g = buckets.nextSetBit(0); g >= 0; g = buckets.nextSetBit(g + 1)) {
+                putInt(grams, g, i);
+            }
+        });
+        for (int b = 0; b < exact.length; b += 1) {
+            appendBucket(exactFile(b), exact[b]);
+        }
+        for (int b = 0; b < grams.length; b += 1) {
+            appendBucket(gramFile(b), grams[b]);
+        }
+        Utils.writeContents(POSTED_FILE,
+                ByteBuffer.allocate(2 * Integer.BYTES).putInt(FORMAT).putInt(to).array());
+    }
+
+    /** Call ACTION with the message and ordinal of each message FROM to TO,
+     *  in order, reading the log through once. */
+    private static void forEach(int from, int to, ObjIntConsumer<String> action)
+            throws IOException {
+        ByteBuffer starts = ByteBuffer.allocate((to - from) * Long.BYTES);
+        try (RandomAccessFile offsets = new RandomAccessFile(OFFSETS_FILE, "r")) {
+            offsets.seek((long) from * Long.BYTES);
+            offsets.readFully(starts.array());
+        }
+        try (DataInputStream log = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(LOG_FILE), 1 << 16))) {
+            long position = 0;
+            for (int i = from; i < to; i += 1) {
+                long start = starts.getLong();
+                // Torn records left by a crash lie between the indexed ones.
+                log.skipNBytes(start - position);
+                log.skipNBytes(SHA_BYTES);
+                byte[] bytes = new byte[log.readInt()];
+                log.readFully(bytes);
+                position = start + SHA_BYTES + Integer.BYTES + bytes.length;
+                action.accept(new String(bytes, StandardCharsets.UTF_8), i);
+            }
+        }
+    }
+
+    /** Write the record of commit ID, with message MESSAGE, to OUT, and
+     *  return its length. */
+    private static int writeRecord(DataOutputStream out, String id, String message)
+            throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        out.write(Utils.fromHex(id));
+        out.writeInt(bytes.length);
+        out.write(bytes);
+        return SHA_BYTES + Integer.BYTES + bytes.length;
+    }
+
+    /** Return the ordinals below SIZE listed in the posting list FILE. */
+    private static BitSet postings(File file, int size) {
+        BitSet ordinals = new BitSet(size);
+        if (file.exists()) {
+            ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(file));
+            while (buf.remaining() >= Integer.BYTES) {
+                int i = buf.getInt();
+                if (i < size) {
+                    ordinals.set(i);
+                }
+            }
+        }
+        return ordinals;
+    }
+
+    /** Return the ordinals below SIZE whose message hashes to KEY. */
+    private static BitSet exactPostings(long key, int size) {
+        BitSet ordinals = new BitSet(size);
+        File file = exactFile(exactBucket(key));
+        if (file.exists()) {
+            ByteBuffer buf = ByteBuffer.wrap(Utils.readContents(file));
+            while (buf.remaining() >= EXACT_POSTING) {
+                long k = buf.getLong();
+                int i = buf.getInt();
+                if (k == key && i < size) {
+                    ordinals.set(i);
+                }
+            }
+        }
+        return ordinals;
+    }
+
+    /** Append the ordinals in BUCKET, if any, to the posting list FILE. */
+    private static void appendBucket(File file, ByteArrayOutputStream bucket)
+            throws IOException {
+        if (bucket == null) {
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            bucket.writeTo(out);
+        }
+    }
+
+    /** Add the hash KEY to bucket B of BUCKETS. */
+    private static void putLong(ByteArrayOutputStream[] buckets, int b, long key) {
+        putInt(buckets, b, (int) (key >>> 32));
+        putInt(buckets, b, (int) key);
+    }
+
+    /** Add ordinal I to bucket B of BUCKETS. */
+    private static void putInt(ByteArrayOutputStream[] buckets, int b, int i) {
+        if (buckets[b] == null) {
+            buckets[b] = new ByteArrayOutputStream();
+        }
+        buckets[b].write(i >>> 24);
+        buckets[b].write(i >>> 16);
+        buckets[b].write(i >>> 8);
+        buckets[b].write(i);
+    }
+
+    /** Return the buckets of the substrings of length GRAM of TEXT. */
+    private static BitSet grams(String text) {
+        BitSet buckets = new BitSet(1 << GRAM_BITS);
+        for (int i = 0; i + GRAM <= text.length(); i += 1) {
+            int key = (text.charAt(i) * 31 + text.charAt(i + 1)) * 31 + text.charAt(i + 2);
+            buckets.set(mix(key, GRAM_BITS));
+        }
+        return buckets;
+    }
+
+    /** Return the top BITS bits of KEY, scrambled. */
+    private static int mix(int key, int bits) {
+        return (key * 0x9E3779B9) >>> (Integer.SIZE - bits);
+    }
+
+    /** Return the hash of the whole message MESSAGE: the first 64 bits of
+     *  its SHA1. */
+    private static long exactKey(String message) {
+        byte[] digest = Utils.sha1Digest().digest(message.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest).getLong();
+    }
+
+    /** Return the number of the posting list of whole messages that hash
+     *  to KEY. */
+    private static int exactBucket(long key) {
+        return (int) (key >>> (Long.SIZE - EXACT_BITS));
+    }
+
+    /** Return posting list B of whole messages. */
+    private static File exactFile(int b) {
+        return join(EXACT_DIR, String.format("%02x", b));
+    }
+
+    /** Return posting list B of substrings. */
+    private static File gramFile(int b) {
+        return join(GRAMS_DIR, String.format("%03x", b));
+    }
+}
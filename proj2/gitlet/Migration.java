@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static gitlet.Utils.join;
+
+/**
+ * Rewrites a repository written by an earlier version, whose objects and
+ * state are serialized Java objects, in the Codec encoding. Every blob and
+ * commit gets a new ID, so commits are rewritten parents first and the
+ * branches and stage are renamed to match. New objects are written before
+ * any old one is deleted, and files already in the Codec encoding are left
+ * as they are, so an interrupted migration can simply be run again.
+ * @author CuiYuxin
+ */
+class Migration {
+    /** The new ID of each blob. Key: old ID */
+    private final Map<String, String> blobs = new HashMap<>();
+    /** The new ID of each commit. Key: old ID */
+    private final Map<String, String> commits = new HashMap<>();
+    /** The blobs replaced by rewritten ones. */
+    private final Set<String> oldBlobs = new HashSet<>();
+    /** The commits replaced by rewritten ones. */
+    private final Set<String> oldCommits = new HashSet<>();
+
+    /**
+     * Return whether CONTENTS is a serialized Java object.
+     * @author CuiYuxin
+     */
+    static boolean isLegacy(byte[] contents) {
+        return contents.length >= 2 && (contents[0] & 0xff) == 0xac
+                && (contents[1] & 0xff) == 0xed;
+    }
+
+    /**
+     * Rewrite every blob, commit and branch and the stage. The index and
+     * commit graph name objects by their old IDs, so they are dropped and
+     * rebuilt on demand.
+     * @author CuiYuxin
+     */
+    void run() {
+        List<String> ids = new ArrayList<>();
+        Blob.STORE.forEach(ids::add);
+        for (String id : ids) {
+            String newID = Blob.rewrite(id);
+            blobs.put(id, newID);
+            if (!newID.equals(id)) {
+                oldBlobs.add(id);
+            }
+        }
+        ids.clear();
+        Commit.STORE.forEach(ids::add);
+        for (String id : ids) {
+            commit(id);
+        }
+        for (String name : Branch.allBranches()) {
+            if (isLegacy(Utils.readContents(join(Branch.BRANCH_DIR, name)))) {
+                Branch old = Branch.readLegacy(name);
+                new Branch(name, commit(old.getLatestCommit())).write();
+            }
+        }
+        File stage = join(Repository.GITLET_DIR, "stage");
+        if (stage.exists() && isLegacy(Utils.readContents(stage))) {
+            Stage.readLegacy(blobs).write();
+        }
+        Index.INDEX_FILE.delete();
+        CommitGraph.GRAPH_FILE.delete();
+        MessageIndex.delete();
+    }
+
+    /**
+     * Return the new ID of commit ID, rewriting it and any of its
+     * ancestors not yet rewritten.
+     * @author CuiYuxin
+     */
+    String commit(String id) {
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(id);
+        while (!stack.isEmpty()) {
+            String cur = stack.peek();
+            if (commits.containsKey(cur)) {
+                stack.pop();
+                continue;
+            }
+            byte[] contents = Commit.STORE.read(cur);
+            if (!isLegacy(contents)) {
+                commits.put(cur, cur);
+                stack.pop();
+                continue;
+            }
+            Commit old = Utils.deserialize(contents, Commit.class);
+            boolean ready = true;
+            for (String p : new String[] {old.getParent(), old.getParent2()}) {
+                if (!p.equals("") && !commits.containsKey(p)) {
+                    stack.push(p);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                stack.pop();
+                commits.put(cur, old.remap(commits, blobs).write());
+                oldCommits.add(cur);
+            }
+        }
+        return commits.get(id);
+    }
+
+    /**
+     * Delete the objects that were rewritten.
+     * @author CuiYuxin
+     */
+    void deleteOld() {
+        Blob.STORE.delete(oldBlobs);
+        Commit.STORE.delete(oldCommits);
+    }
+}
@@ -0,0 +1,115 @@
+package gitlet;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+/**
+ * Represents a least-recently-used cache of decoded objects keyed by SHA1,
+ * bounded by the total size in bytes of the objects it holds. Objects are
+ * immutable once written, so cached values never go stale. Safe for use
+ * from several threads.
+ * @author CuiYuxin
+ */
+class ObjectCache<V> {
+    /** The most bytes of objects held at once. */
+    private final long capacity;
+    /** Returns the size in bytes charged for a value. */
+    private final ToLongFunction<V> weigher;
+    /** The cached values, least recently used first. */
+    private final LinkedHashMap<String, V> values = new LinkedHashMap<>(16, 0.75f, true);
+    /** The size in bytes charged for each cached value. */
+    private final Map<String, Long> weights = new HashMap<>();
+    /** The total size of the cached values. */
+    private long size;
+    /** The number of lookups answered from the cache. */
+    private long hits;
+    /** The number of lookups that had to load the value. */
+    private long misses;
+
+    /**
+     * Create a cache holding at most CAPACITY bytes, where WEIGHER gives
+     * the size of a value.
+     * @author CuiYuxin
+     */
+    ObjectCache(long capacity, ToLongFunction<V> weigher) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+    }
+
+    /**
+     * Return the value for ID, calling LOADER to produce it on a miss. Null
+     * values are returned but not cached.
+     * @author CuiYuxin
+     */
+    V get(String id, Function<String, V> loader) {
+        synchronized (this) {
+            V value = values.get(id);
+            if (value != null) {
+                hits += 1;
+                return value;
+            }
+            misses += 1;
+        }
+        V value = loader.apply(id);
+        if (value != null) {
+            put(id, value);
+        }
+        return value;
+    }
+
+    /** Add ID -> VALUE, evicting the least recently used values as needed.
+     *  Values bigger than a quarter of the capacity are not kept. */
+    private synchronized void put(String id, V value) {
+        long weight = weigher.applyAsLong(value);
+        if (weight > capacity / 4 || values.containsKey(id)) {
+            return;
+        }
+        values.put(id, value);
+        weights.put(id, weight);
+        size += weight;
+        Iterator<String> it = values.keySet().iterator();
+        while (size > capacity && it.hasNext()) {
+            String old = it.next();
+            size -= weights.remove(old);
+            it.remove();
+        }
+    }
+
+    /**
+     * Remove every value, so that the next lookups load them again.
+     * @author CuiYuxin
+     */
+    synchronized void clear() {
+        values.clear();
+        weights.clear();
+        size = 0;
+    }
+
+    /**
+     * Return the number of lookups answered from the cache.
+     * @author CuiYuxin
+     */
+    synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Return the number of lookups that had to load the value.
+     * @author CuiYuxin
+     */
+    synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Return the total size in bytes of the cached values.
+     * @author CuiYuxin
+     */
+    synchronized long size() {
+        return size;
+    }
+}
@@ -0,0 +1,605 @@
+package gitlet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+import static gitlet.Utils.join;
+
+/**
+ * Represents a content-addressed store of objects named by SHA1.
+ * Objects start out loose, one file per object sharded by the first two
+ * hex digits of its SHA1 (ab/cdef...), and are folded into packs under
+ * the "pack" subdirectory by repack. Iterating a store yields the IDs of
+ * all its objects in sorted order, reading one shard at a time.
+ *
+ * A gc may repack a store while other processes read it: it installs the
+ * new pack before deleting the loose files and old packs it replaces. A
+ * lookup that finds nothing, or finds a file that has just been deleted,
+ * therefore lists the packs again and retries if the pack directory has
+ * changed since they were listed. Once a lookup has opened a file, the
+ * file stays readable after it is deleted.
+ * @author CuiYuxin
+ */
+class ObjectStore implements Iterable<String> {
+    /** The number of hex digits that name a shard. */
+    private static final int SHARD = 2;
+    /** The directory of loose objects. */
+    private final File dir;
+    /** The directory of packs. */
+    private final File packDir;
+    /** The packs of this store, loaded on first use. */
+    private List<Pack> packs;
+    /** The modification time of the pack directory when PACKS was listed. */
+    private long listed;
+
+    /**
+     * Create a store kept in DIR.
+     * @author CuiYuxin
+     */
+    ObjectStore(File dir) {
+        this.dir = dir;
+        this.packDir = join(dir, "pack");
+    }
+
+    /**
+     * Return whether object ID exists.
+     * @author CuiYuxin
+     */
+    boolean contains(String id) {
+        return retrying(() -> containsOnce(id) ? Boolean.TRUE : null) != null;
+    }
+
+    /** Return whether object ID exists, as far as the packs listed know. */
+    private boolean containsOnce(String id) {
+        if (looseFile(id).isFile()) {
+            return true;
+        }
+        for (Pack pack : packs()) {
+            if (pack.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Write CONTENTS as object ID, unless it already exists. Return
+     * whether it was written. The object is written to a temporary file
+     * and installed by renaming, so that a repack never sees it torn.
+     * @author CuiYuxin
+     */
+    boolean write(String id, byte[] contents) {
+        if (contains(id)) {
+            return false;
+        }
+        File tmp = tempFile();
+        try {
+            Utils.writeContents(tmp, contents);
+        } catch (IllegalArgumentException e) {
+            tmp.delete();
+            throw Utils.error("Cannot write object %s.", id);
+        }
+        install(id, tmp);
+        return true;
+    }
+
+    /**
+     * Return the contents of object ID, or null if it does not exist.
+     * @author CuiYuxin
+     */
+    byte[] read(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        return retrying(() -> readOnce(id));
+    }
+
+    /** Return the contents of object ID, or null if the packs listed do
+     *  not have it. */
+    private byte[] readOnce(String id) {
+        try {
+            return Files.readAllBytes(looseFile(id).toPath());
+        } catch (IOException e) {
+            // Not loose, or just packed by a gc: look in the packs.
+        }
+        for (Pack pack : packs()) {
+            try {
+                byte[] contents = pack.read(id);
+                if (contents != null) {
+                    return contents;
+                }
+            } catch (GitletException e) {
+                checkDeleted(pack, e);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return a stream over the contents of object ID, or null if it does
+     * not exist.
+     * @author CuiYuxin
+     */
+    InputStream open(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        return retrying(() -> openOnce(id));
+    }
+
+    /** Return a stream over the contents of object ID, or null if the
+     *  packs listed do not have it. */
+    private InputStream openOnce(String id) {
+        try {
+            return new FileInputStream(looseFile(id));
+        } catch (FileNotFoundException e) {
+            // Not loose, or just packed by a gc: look in the packs.
+        }
+        for (Pack pack : packs()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                try {
+                    return pack.open(i);
+                } catch (GitletException e) {
+                    checkDeleted(pack, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Where the contents of an object lie on disk, with the file holding
+     *  them open, so that they can still be read if a gc deletes it. */
+    static class Location implements Closeable {
+        /** The file holding the object, open for reading. */
+        final FileChannel channel;
+        /** Where the object starts in the file. */
+        final long offset;
+        /** The length of the object. */
+        final long length;
+
+        Location(FileChannel channel, long offset, long length) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Return where object ID lies on disk, or null if it does not exist.
+     * The Location must be closed.
+     * @author CuiYuxin
+     */
+    Location locate(String id) {
+        if (id.length() != Utils.UID_LENGTH) {
+            return null;
+        }
+        return retrying(() -> locateOnce(id));
+    }
+
+    /** Return where object ID lies on disk, or null if the packs listed
+     *  do not have it. */
+    private Location locateOnce(String id) {
+        try {
+            FileChannel loose = FileChannel.open(looseFile(id).toPath(), StandardOpenOption.READ);
+            return new Location(loose, 0, loose.size());
+        } catch (IOException e) {
+            // Not loose, or just packed by a gc: look in the packs.
+        }
+        for (Pack pack : packs()) {
+            int i = pack.find(id);
+            if (i >= 0) {
+                try {
+                    FileChannel ch = FileChannel.open(pack.file().toPath(),
+                            StandardOpenOption.READ);
+                    return new Location(ch, pack.offset(i), pack.length(i));
+                } catch (IOException e) {
+                    checkDeleted(pack, Utils.error("Cannot read pack %s.", pack.name()));
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return what LOOKUP finds, looking again with the packs listed anew
+     *  if it finds nothing and the pack directory has changed since they
+     *  were listed. */
+    private <T> T retrying(Supplier<T> lookup) {
+        T found = lookup.get();
+        if (found == null && packsChanged()) {
+            found = lookup.get();
+        }
+        return found;
+    }
+
+    /** Throw ERROR, a failure to read PACK, unless PACK has been deleted,
+     *  as by a gc that has replaced it. */
+    private static void checkDeleted(Pack pack, GitletException error) {
+        if (pack.file().exists()) {
+            throw error;
+        }
+    }
+
+    /**
+     * Return a new temporary file inside this store, on the same file
+     * system as the objects so that it can be installed by renaming.
+     * @author CuiYuxin
+     */
+    File tempFile() {
+        dir.mkdirs();
+        try {
+            return File.createTempFile("tmp-", "", dir);
+        } catch (IOException e) {
+            throw Utils.error("Cannot create a temporary file in %s.", dir);
+        }
+    }
+
+    /**
+     * Install the temporary file TMP as object ID, or discard it if the
+     * object already exists.
+     * @author CuiYuxin
+     */
+    void install(String id, File tmp) {
+        if (contains(id)) {
+            tmp.delete();
+            return;
+        }
+        File file = looseFile(id);
+        file.getParentFile().mkdirs();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw Utils.error("Cannot write object %s.", id);
+        }
+    }
+
+    /**
+     * Return an estimate of the number of loose objects, from the number
+     * in a single shard.
+     * @author CuiYuxin
+     */
+    int estimateLoose() {
+        String[] names = join(dir, "17").list();
+        return names == null ? 0 : names.length << (4 * SHARD);
+    }
+
+    /**
+     * Install the temporary file TMP as object ID, replacing its current
+     * loose file, if any. A packed copy is superseded, since loose objects
+     * are read first, and is dropped by the next repack.
+     * @author CuiYuxin
+     */
+    void replace(String id, File tmp) {
+        File file = looseFile(id);
+        file.getParentFile().mkdirs();
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw Utils.error("Cannot write object %s.", id);
+        }
+    }
+
+    /**
+     * Return the IDs of at most LIMIT objects whose IDs start with PREFIX,
+     * which must be at least two digits long, in sorted order. Only the
+     * shard named by PREFIX is listed, and packs are binary searched.
+     * @author CuiYuxin
+     */
+    List<String> findPrefix(String prefix, int limit) {
+        TreeSet<String> found = new TreeSet<>();
+        String shard = prefix.substring(0, SHARD);
+        String rest = prefix.substring(SHARD);
+        String[] names = join(dir, shard).list((d, name) -> name.startsWith(rest));
+        if (names != null) {
+            for (String name : names) {
+                found.add(shard + name);
+            }
+        }
+        for (Pack pack : packs()) {
+            int i = pack.lowerBound(prefix);
+            for (int n = 0; n < limit && i < pack.size(); n += 1, i += 1) {
+                String id = pack.id(i);
+                if (!id.startsWith(prefix)) {
+                    break;
+                }
+                found.add(id);
+            }
+        }
+        List<String> ids = new ArrayList<>(found);
+        return ids.subList(0, Math.min(limit, ids.size()));
+    }
+
+    /**
+     * Return an iterator over the IDs of all objects, loose and packed,
+     * in sorted order.
+     * @author CuiYuxin
+     */
+    @Override
+    public Iterator<String> iterator() {
+        List<Iterator<String>> sources = new ArrayList<>();
+        sources.add(new LooseIterator());
+        for (Pack pack : packs()) {
+            sources.add(pack.iterator());
+        }
+        return new MergedIterator(sources);
+    }
+
+    /**
+     * Fold all loose objects and existing packs into a single new pack,
+     * then delete what it replaces. Return the number of objects packed.
+     * @author CuiYuxin
+     */
+    int repack() {
+        List<String> loose = new ArrayList<>();
+        new LooseIterator().forEachRemaining(loose::add);
+        List<Pack> old = packs();
+        if (loose.isEmpty() && old.size() <= 1) {
+            return 0;
+        }
+        List<String> ids = new ArrayList<>();
+        forEach(ids::add);
+        Pack pack = Pack.write(packDir, ids, this::open);
+        for (Pack p : old) {
+            if (!p.name().equals(pack.name())) {
+                p.delete();
+            }
+        }
+        for (String id : loose) {
+            File file = looseFile(id);
+            file.delete();
+            file.getParentFile().delete(); // only succeeds once the shard is empty
+        }
+        synchronized (this) {
+            packs = null;
+        }
+        return ids.size();
+    }
+
+    /**
+     * Delete the objects IDS. Packs holding any of them are rewritten
+     * without them.
+     * @author CuiYuxin
+     */
+    void delete(Set<String> ids) {
+        for (String id : ids) {
+            File file = looseFile(id);
+            if (file.delete()) {
+                file.getParentFile().delete(); // only succeeds once the shard is empty
+            }
+        }
+        for (Pack pack : packs()) {
+            List<String> keep = new ArrayList<>();
+            for (Iterator<String> it = pack.iterator(); it.hasNext();) {
+                String id = it.next();
+                if (!ids.contains(id)) {
+                    keep.add(id);
+                }
+            }
+            if (keep.size() == pack.size()) {
+                continue;
+            }
+            if (!keep.isEmpty()) {
+                Pack.write(packDir, keep, this::open);
+            }
+            pack.delete();
+        }
+        synchronized (this) {
+            packs = null;
+        }
+    }
+
+    /**
+     * Move loose objects stored flat in the store directory, as earlier
+     * versions did, into their shards.
+     * @author CuiYuxin
+     */
+    void migrate() {
+        List<String> flat = Utils.plainFilenamesIn(dir);
+        if (flat == null) {
+            return;
+        }
+        for (String id : flat) {
+            if (id.length() != Utils.UID_LENGTH) {
+                continue;
+            }
+            File file = looseFile(id);
+            file.getParentFile().mkdirs();
+            if (file.exists()) {
+                join(dir, id).delete();
+            } else {
+                join(dir, id).renameTo(file);
+            }
+        }
+    }
+
+    /** Return the file of loose object ID. */
+    private File looseFile(String id) {
+        return join(dir, id.substring(0, SHARD), id.substring(SHARD));
+    }
+
+    /**
+     * Pick up packs written or deleted by other processes since the packs
+     * were listed, as a long-running process must before each command.
+     * @author CuiYuxin
+     */
+    synchronized void refresh() {
+        if (packs == null) {
+            return;
+        }
+        Set<String> names = new TreeSet<>();
+        File[] idxFiles = packDir.listFiles((d, name) -> name.endsWith(".idx"));
+        if (idxFiles != null) {
+            for (File idx : idxFiles) {
+                names.add(idx.getName().replace(".idx", ".pack"));
+            }
+        }
+        Set<String> loaded = new TreeSet<>();
+        for (Pack pack : packs) {
+            loaded.add(pack.name());
+        }
+        if (!names.equals(loaded)) {
+            packs = null;
+        }
+    }
+
+    /** If the pack directory has changed since the packs were listed,
+     *  forget them, so that they are listed again, and return true. */
+    private synchronized boolean packsChanged() {
+        if (packs == null || packDir.lastModified() == listed) {
+            return false;
+        }
+        packs = null;
+        return true;
+    }
+
+    /** Return the packs of this store. Synchronized, since several threads
+     *  may read objects at once. */
+    private synchronized List<Pack> packs() {
+        if (packs == null) {
+            // Noted first, so that a pack added while listing shows as a change.
+            listed = packDir.lastModified();
+            packs = new ArrayList<>();
+            File[] idxFiles = packDir.listFiles((d, name) -> name.endsWith(".idx"));
+            if (idxFiles != null) {
+                for (File idx : idxFiles) {
+                    packs.add(new Pack(idx));
+                }
+            }
+        }
+        return packs;
+    }
+
+    /** Iterates over the IDs of loose objects, listing one shard at a time. */
+    private class LooseIterator implements Iterator<String> {
+        /** The shards, in sorted order. */
+        private final List<String> shards;
+        /** The index of the next shard to list. */
+        private int nextShard;
+        /** The shard being iterated. */
+        private String shard;
+        /** The sorted object names in the current shard. */
+        private List<String> names = Collections.emptyList();
+        /** The index of the next name in the current shard. */
+        private int nextName;
+
+        LooseIterator() {
+            String[] found = dir.list((d, name) -> name.length() == SHARD
+                    && new File(d, name).isDirectory());
+            if (found == null) {
+                found = new String[0];
+            }
+            Arrays.sort(found);
+            shards = Arrays.asList(found);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (nextName >= names.size()) {
+                if (nextShard >= shards.size()) {
+                    return false;
+                }
+                shard = shards.get(nextShard);
+                nextShard += 1;
+                List<String> listed = Utils.plainFilenamesIn(join(dir, shard));
+                names = listed == null ? Collections.emptyList() : listed;
+                nextName = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String id = shard + names.get(nextName);
+            nextName += 1;
+            return id;
+        }
+    }
+
+    /** Merges sorted iterators of IDs, dropping duplicates. */
+    private static class MergedIterator implements Iterator<String> {
+        /** The sources with elements left, each paired with its head. */
+        private final PriorityQueue<Head> heads = new PriorityQueue<>();
+        /** The last ID returned. */
+        private String last;
+
+        /** The next unreturned ID of SOURCE. */
+        private static class Head implements Comparable<Head> {
+            /** The current ID. */
+            private String id;
+            /** Where the rest come from. */
+            private final Iterator<String> source;
+
+            Head(String id, Iterator<String> source) {
+                this.id = id;
+                this.source = source;
+            }
+
+            @Override
+            public int compareTo(Head o) {
+                return id.compareTo(o.id);
+            }
+        }
+
+        MergedIterator(List<Iterator<String>> sources) {
+            for (Iterator<String> source : sources) {
+                if (source.hasNext()) {
+                    heads.add(new Head(source.next(), source));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!heads.isEmpty() && heads.peek().id.equals(last)) {
+                advance();
+            }
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            last = heads.peek().id;
+            advance();
+            return last;
+        }
+
+        /** Move the smallest head to its next ID. */
+        private void advance() {
+            Head head = heads.poll();
+            if (head.source.hasNext()) {
+                head.id = head.source.next();
+                heads.add(head);
+            }
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package gitlet;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * Represents a pack: many objects stored in one append-only data file
+ * (NAME.pack) together with an index (NAME.idx) of SHA1 -> offset/length
+ * entries sorted by SHA1, so lookups are a binary search.
+ * @author CuiYuxin
+ */
+class Pack {
+    /** Magic number at the head of a pack data file. */
+    private static final int PACK_MAGIC = 0x47504b31; // "GPK1"
+    /** Magic number at the head of a pack index file. */
+    private static final int IDX_MAGIC = 0x47494431; // "GID1"
+    /** Size of the header of both files: magic + object count. */
+    private static final int HEADER = 8;
+    /** Size of a raw SHA1. */
+    private static final int SHA_BYTES = Utils.UID_LENGTH / 2;
+    /** Size of one index entry: SHA1, 8 byte offset, 8 byte length. */
+    private static final int ENTRY = SHA_BYTES + 8 + 8;
+
+    /** The pack data file. */
+    private final File packFile;
+    /** The mapped index. */
+    private final ByteBuffer index;
+    /** The number of objects in this pack. */
+    private final int count;
+
+    /**
+     * Open the pack whose index is IDXFILE.
+     * @author CuiYuxin
+     */
+    Pack(File idxFile) {
+        String name = idxFile.getName();
+        packFile = new File(idxFile.getParentFile(),
+                name.substring(0, name.length() - ".idx".length()) + ".pack");
+        try (FileChannel ch = FileChannel.open(idxFile.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            if (buf.getInt(0) != IDX_MAGIC) {
+                throw Utils.error("Corrupt pack index %s.", name);
+            }
+            count = buf.getInt(4);
+            index = buf;
+        } catch (IOException e) {
+            throw Utils.error("Cannot read pack index %s.", name);
+        }
+    }
+
+    /**
+     * Return the number of objects in this pack.
+     * @author CuiYuxin
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Return the file name of this pack.
+     * @author CuiYuxin
+     */
+    String name() {
+        return packFile.getName();
+    }
+
+    /**
+     * Return the SHA1 of the I-th object, in sorted order.
+     * @author CuiYuxin
+     */
+    String id(int i) {
+        byte[] raw = new byte[SHA_BYTES];
+        index.get(HEADER + i * ENTRY, raw);
+        return Utils.toHex(raw);
+    }
+
+    /**
+     * Return the position of object ID in the index, or -1 if absent.
+     * @author CuiYuxin
+     */
+    int find(String id) {
+        byte[] key = Utils.fromHex(id);
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = compareAt(mid, key);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the position of the first object whose SHA1 is not less than
+     * PREFIX, a hex numeral of any length.
+     * @author CuiYuxin
+     */
+    int lowerBound(String prefix) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (id(mid).compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Return whether this pack holds object ID.
+     * @author CuiYuxin
+     */
+    boolean contains(String id) {
+        return find(id) >= 0;
+    }
+
+    /**
+     * Return the contents of object ID, or null if it is not in this pack.
+     * @author CuiYuxin
+     */
+    byte[] read(String id) {
+        int i = find(id);
+        if (i < 0) {
+            return null;
+        }
+        return read(i);
+    }
+
+    /**
+     * Return the contents of the I-th object.
+     * @author CuiYuxin
+     */
+    byte[] read(int i) {
+        long offset = offset(i);
+        long length = length(i);
+        byte[] contents = new byte[(int) length];
+        try (RandomAccessFile in = new RandomAccessFile(packFile, "r")) {
+            in.seek(offset);
+            in.readFully(contents);
+        } catch (IOException e) {
+            throw Utils.error("Cannot read pack %s.", packFile.getName());
+        }
+        return contents;
+    }
+
+    /**
+     * Return the pack data file.
+     * @author CuiYuxin
+     */
+    File file() {
+        return packFile;
+    }
+
+    /**
+     * Return where the I-th object starts in the pack data file.
+     * @author CuiYuxin
+     */
+    long offset(int i) {
+        return index.getLong(HEADER + i * ENTRY + SHA_BYTES);
+    }
+
+    /**
+     * Return the length of the I-th object.
+     * @author CuiYuxin
+     */
+    long length(int i) {
+        return index.getLong(HEADER + i * ENTRY + SHA_BYTES + 8);
+    }
+
+    /**
+     * Return a stream over the contents of the I-th object.
+     * @author CuiYuxin
+     */
+    InputStream open(int i) {
+        long offset = offset(i);
+        long length = length(i);
+        try {
+            return new Region(new RandomAccessFile(packFile, "r"), offset, length);
+        } catch (IOException e) {
+            throw Utils.error("Cannot read pack %s.", packFile.getName());
+        }
+    }
+
+    /** A stream over LENGTH bytes of a pack, starting at OFFSET. */
+    private static class Region extends InputStream {
+        /** The pack. */
+        private final RandomAccessFile file;
+        /** The number of bytes left. */
+        private long remaining;
+
+        Region(RandomAccessFile file, long offset, long length) throws IOException {
+            this.file = file;
+            this.remaining = length;
+            file.seek(offset);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            remaining -= 1;
+            return file.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = file.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            file.close();
+        }
+    }
+
+    /**
+     * Delete the files of this pack.
+     * @author CuiYuxin
+     */
+    void delete() {
+        String name = packFile.getName();
+        new File(packFile.getParentFile(),
+                name.substring(0, name.length() - ".pack".length()) + ".idx").delete();
+        packFile.delete();
+    }
+
+    /**
+     * Return an iterator over the SHA1s in this pack, in sorted order.
+     * @author CuiYuxin
+     */
+    Iterator<String> iterator() {
+        return new Iterator<String>() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                next += 1;
+                return id(next - 1);
+            }
+        };
+    }
+
+    /** Compare the SHA1 of entry I with KEY. */
+    private int compareAt(int i, byte[] key) {
+        int base = HEADER + i * ENTRY;
+        for (int k = 0; k < SHA_BYTES; k += 1) {
+            int c = Integer.compare(index.get(base + k) & 0xff, key[k] & 0xff);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /** Supplies the contents of objects that are being packed. */
+    interface Source {
+        /** Return a stream over the contents of object ID. */
+        InputStream open(String id);
+    }
+
+    /**
+     * Write the objects IDS (sorted, without duplicates), whose contents come
+     * from SOURCE, into a new pack in DIR and return it.
+     * @author CuiYuxin
+     */
+    static Pack write(File dir, List<String> ids, Source source) {
+        dir.mkdirs();
+        String name = "pack-" + Utils.sha1(new ArrayList<Object>(ids));
+        File packFile = new File(dir, name + ".pack");
+        File idxFile = new File(dir, name + ".idx");
+        File packTmp = new File(dir, name + ".pack.tmp");
+        File idxTmp = new File(dir, name + ".idx.tmp");
+        long[] offsets = new long[ids.size()];
+        long[] lengths = new long[ids.size()];
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(packTmp)))) {
+                out.writeInt(PACK_MAGIC);
+                out.writeInt(ids.size());
+                long offset = HEADER;
+                for (int i = 0; i < ids.size(); i += 1) {
+                    try (InputStream in = source.open(ids.get(i))) {
+                        lengths[i] = in.transferTo(out);
+                    }
+                    offsets[i] = offset;
+                    offset += lengths[i];
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(idxTmp)))) {
+                out.writeInt(IDX_MAGIC);
+                out.writeInt(ids.size());
+                for (int i = 0; i < ids.size(); i += 1) {
+                    out.write(Utils.fromHex(ids.get(i)));
+                    out.writeLong(offsets[i]);
+                    out.writeLong(lengths[i]);
+                }
+            }
+        } catch (IOException e) {
+            packTmp.delete();
+            idxTmp.delete();
+            throw Utils.error("Cannot write pack %s.", name);
+        }
+        // The index is renamed last: a pack is visible only once it is complete.
+        packTmp.renameTo(packFile);
+        idxTmp.renameTo(idxFile);
+        return new Pack(idxFile);
+    }
+}
@@ -1,13 +1,22 @@
 package gitlet;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 import static gitlet.Utils.*;
 
 /**
@@ -15,10 +24,21 @@ import static gitlet.Utils.*;
  * @author CuiYuxin
  */
 public class Repository implements Serializable {
+    /** Pinned so that files written by earlier versions stay readable. */
+    private static final long serialVersionUID = 6193234846494035784L;
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
     /** The .gitlet directory. */
     public static final File GITLET_DIR = join(CWD, ".gitlet");
+    /** The file recording the on-disk format of the repository. */
+    public static final File VERSION_FILE = join(GITLET_DIR, "version");
+    /** The on-disk format written by this version: 1 = sharded loose
+     *  objects, 2 = objects and state in the Codec encoding. */
+    static final int FORMAT = 2;
+    /** The Codec tag of the repository status. */
+    private static final int TAG = 'r';
+    /** The Codec format version of the repository status. */
+    private static final int VERSION = 1;
     /** The current commit. */
     private String head;
     /** The current branch. */
@@ -30,16 +50,74 @@ public class Repository implements Serializable {
      */
     public Repository() {
         if (GITLET_DIR.exists()) {
+            upgrade();
             String sp = File.separator;
             File repo = new File(".gitlet" + sp + "REPO");
-            if (repo.exists()) {
-                Repository repoObj = Utils.readObject(repo, Repository.class);
-                head = repoObj.head;
-                branch = repoObj.branch;
+            if (repo.exists() && format() >= 2) {
+                Codec.Reader r = new Codec.Reader(Utils.readContents(repo), TAG, VERSION);
+                head = r.id();
+                branch = r.string();
             }
         }
     }
 
+    /**
+     * Return the files tracked by the current commit, none if there is
+     * no commit yet.
+     * @author CuiYuxin
+     */
+    public Set<String> trackedFiles() {
+        return head == null ? Set.of() : Commit.read(head).getBlobs().keySet();
+    }
+
+    /**
+     * Return the on-disk format of the repository, 0 if it predates the
+     * version file.
+     * @author CuiYuxin
+     */
+    public static int format() {
+        if (!VERSION_FILE.exists()) {
+            return 0;
+        }
+        return Integer.parseInt(Utils.readContentsAsString(VERSION_FILE).trim());
+    }
+
+    /**
+     * Bring a repository written by an earlier version up to the format
+     * reached without rewriting objects: sharding is done in place, while
+     * the Codec encoding is left to the migrate command.
+     * @author CuiYuxin
+     */
+    private void upgrade() {
+        if (format() < 1) {
+            Blob.STORE.migrate();
+            Commit.STORE.migrate();
+            Utils.writeContents(VERSION_FILE, "1\n");
+        }
+    }
+
+    /**
+     * Rewrite a repository written by an earlier version in the Codec
+     * encoding, renaming every object, branch head and staged file.
+     * @author CuiYuxin
+     */
+    public void migrate() {
+        if (format() >= FORMAT) {
+            throw Utils.error("Repository is already up to date.");
+        }
+        File repo = join(GITLET_DIR, "REPO");
+        Migration migration = new Migration();
+        migration.run();
+        if (Migration.isLegacy(Utils.readContents(repo))) {
+            Repository legacy = Utils.readObject(repo, Repository.class);
+            head = migration.commit(legacy.head);
+            branch = legacy.branch;
+            write();
+        }
+        Utils.writeContents(VERSION_FILE, FORMAT + "\n");
+        migration.deleteOld();
+    }
+
     /**
      * Init a gitlet repository.
      * @author CuiYuxin
@@ -48,57 +126,101 @@ public class Repository implements Serializable {
         if (!GITLET_DIR.exists()) {
             //create .gitlet directory
             GITLET_DIR.mkdir();
+            Utils.writeContents(VERSION_FILE, FORMAT + "\n");
+            MessageIndex.create();
             //create init commit
             Commit cmt = new Commit();
             cmt.initCommit();
             head = cmt.write();
             //create master branch
-            Branch br = new Branch("master", Utils.sha1(Utils.serialize(cmt)));
+            Branch br = new Branch("master", head);
             br.write();
             branch = "master";
             //update repository status
             write();
         } else {
             String e = "A Gitlet version-control system already exists in the current directory.";
-            System.out.println(e);
-            System.exit(0);
+            throw Utils.error(e);
         }
     }
 
     /**
-     * Add a file to the staging area.
+     * Add files to the staging area. Each of PATHS may name a file, a
+     * directory, whose files are all added, however deep, unless ignored,
+     * or a glob pattern such as "*.txt" or "src/**" matched against the
+     * paths of the files of the working tree.
+     * The files are hashed and stored in parallel, and the stage is
+     * written once, at the end.
      * @author CuiYuxin
      */
-    public void add(String fileName) {
-        File file = new File(fileName);
-        if (!file.exists()) {
-            System.out.println("File does not exist.");
-            System.exit(0);
-        }
-        //copy file to blob directory
-        Blob blob = new Blob(file);
-        String blobName = blob.write();
-        //update staging area
-        File stageFile = new File(".gitlet/stage");
+    public void add(String... paths) {
+        List<String> fileNames = expandPaths(paths);
         Stage stage = new Stage();
-        stage.add(fileName, blobName, head);
+        Map<String, String> headBlobs = Commit.read(head).getBlobs();
+        Index index = Index.get();
+        //copy files to blob directory, as deltas against their last versions
+        String[] blobNames = new String[fileNames.size()];
+        IntStream.range(0, blobNames.length).parallel().forEach(i -> {
+            String fileName = fileNames.get(i);
+            String base = stage.getBlobmap().getOrDefault(fileName,
+                    headBlobs.getOrDefault(fileName, ""));
+            blobNames[i] = index.write(new File(fileName), base);
+        });
+        //update staging area
+        for (int i = 0; i < blobNames.length; i += 1) {
+            stage.add(fileNames.get(i), blobNames[i], head);
+        }
         stage.write();
     }
 
+    /** Return the paths of the files named by PATHS, relative to the
+     *  working directory, without repeats, or exit if one of them names
+     *  nothing. */
+    private List<String> expandPaths(String... paths) {
+        Set<String> fileNames = new LinkedHashSet<>();
+        WorkTree work = null;
+        for (String path : paths) {
+            File file = new File(path);
+            String rel = WorkTree.relative(path);
+            List<String> matched = null;
+            if (rel == null) {
+                matched = null;
+            } else if (file.isFile()) {
+                matched = List.of(rel);
+            } else if (file.isDirectory()) {
+                matched = WorkTree.scan(file).paths();
+            } else if (path.matches(".*[*?\\[{].*")) {
+                PathMatcher glob = FileSystems.getDefault().getPathMatcher("glob:" + path);
+                if (work == null) {
+                    work = WorkTree.scan(CWD);
+                }
+                matched = new ArrayList<>();
+                for (String name : work.paths()) {
+                    if (glob.matches(Paths.get(name))) {
+                        matched.add(name);
+                    }
+                }
+            }
+            if (matched == null || (matched.isEmpty() && !file.isDirectory())) {
+                throw Utils.error("File does not exist.");
+            }
+            fileNames.addAll(matched);
+        }
+        return new ArrayList<>(fileNames);
+    }
+
     /**
      * Creating a new commit.
      * @author CuiYuxin
      */
     public void commit(String message) {
         if (message == null || message.equals("")) {
-            System.out.println("Please enter a commit message.");
-            System.exit(0);
+            throw Utils.error("Please enter a commit message.");
         }
         Commit oldCmt = Commit.read(head); //read old commit
         Stage stage = new Stage(); //read stage
         if (stage.isEmpty()) {
-            System.out.println("No changes added to the commit.");
-            System.exit(0);
+            throw Utils.error("No changes added to the commit.");
         }
         Map<String, String> cmtMap = Commit.mergeBlobs(stage, oldCmt);
         Commit cmt = new Commit(message, head, "", cmtMap); //create new commit
@@ -109,6 +231,7 @@ public class Repository implements Serializable {
         br.update(head);
         br.write();
         write(); //update repository status
+        GarbageCollector.auto();
     }
 
     /**
@@ -117,13 +240,7 @@ public class Repository implements Serializable {
      */
     public void rm(String fileName) {
         //update staging area
-        File stageFile = new File(".gitlet/stage");
-        Stage stage;
-        if (stageFile.exists()) {
-            stage = Utils.readObject(stageFile, Stage.class);
-        } else {
-            stage = new Stage();
-        }
+        Stage stage = new Stage();
         stage.rm(fileName, head);
         stage.write();
     }
@@ -133,11 +250,39 @@ public class Repository implements Serializable {
      * @author CuiYuxin
      */
     public void log() {
-        String cmtID = head;
-        while (!cmtID.equals("")) {
-            Commit cmt = Commit.read(cmtID);
-            System.out.println(cmt.toString());
-            cmtID = cmt.getParent();
+        log(Integer.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE, false);
+    }
+
+    /**
+     * Print the log of the current branch, following first parents from
+     * the head: at most LIMIT commits, leaving out those made after UNTIL,
+     * in milliseconds since the epoch, and stopping at the first commit
+     * made before SINCE. Print one line per commit if ONELINE. Entries are
+     * written as the walk reaches them, and the walk goes no further than
+     * the output needs.
+     * @author CuiYuxin
+     */
+    public void log(int limit, long since, long until, boolean oneline) {
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            int shown = 0;
+            String cmtID = head;
+            while (!cmtID.equals("") && shown < limit) {
+                Commit cmt = Commit.read(cmtID);
+                long time = cmt.getTimeStamp().getTime();
+                if (time < since) {
+                    break;
+                }
+                if (time <= until) {
+                    out.write(oneline ? cmt.oneline(cmtID) : cmt.log(cmtID));
+                    out.write('\n');
+                    shown += 1;
+                }
+                cmtID = cmt.getParent();
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -146,10 +291,12 @@ public class Repository implements Serializable {
      * @author CuiYuxin
      */
     public void globalLog() {
-        List<String> cmtLogs = Commit.getCommitLog();
-        for (String cmtLog : cmtLogs) {
-            System.out.print(cmtLog);
-            System.out.print("\n");
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        try {
+            Commit.writeGlobalLog(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -182,14 +329,15 @@ public class Repository implements Serializable {
         }
         System.out.println();
         // Unstaged files
+        WorkTree work = WorkTree.scan(CWD);
         System.out.println("=== Modifications Not Staged For Commit ===");
-        for (String fileName : stage.getUnstagedFiles(head)) {
+        for (String fileName : stage.getUnstagedFiles(head, work)) {
             System.out.println(fileName);
         }
         System.out.println();
         // Untracked files
         System.out.println("=== Untracked Files ===");
-        for (String fileName : stage.getUntrackedFiles(head)) {
+        for (String fileName : stage.getUntrackedFiles(head, work)) {
             System.out.println(fileName);
         }
         System.out.println();
@@ -200,10 +348,21 @@ public class Repository implements Serializable {
      * @author CuiYuxin
      */
     public void find(String message) {
-        List<String> cmtID = Commit.find(message);
+        printFound(Commit.find(message));
+    }
+
+    /**
+     * Find the commits whose message contains PATTERN.
+     * @author CuiYuxin
+     */
+    public void grep(String pattern) {
+        printFound(Commit.grep(pattern));
+    }
+
+    /** Print the IDs of the commits CMTID found by a search. */
+    private static void printFound(List<String> cmtID) {
         if (cmtID.size() == 0) {
-            System.out.println("Found no commit with that message.");
-            System.exit(0);
+            throw Utils.error("Found no commit with that message.");
         }
         for (String cmt : cmtID) {
             System.out.println(cmt);
@@ -211,6 +370,25 @@ public class Repository implements Serializable {
     }
 
 
+    /**
+     * Fold loose blobs, commits and trees into packs.
+     * @author CuiYuxin
+     */
+    public void repack() {
+        Blob.STORE.repack();
+        Commit.STORE.repack();
+        Tree.STORE.repack();
+    }
+
+    /**
+     * Store blobs as deltas against well-chosen bases and repack. QUIET
+     * suppresses the summary, as for gc started in the background.
+     * @author CuiYuxin
+     */
+    public void gc(boolean quiet) {
+        GarbageCollector.run(quiet);
+    }
+
     /** Write repository status to disk.
      *  @author CuiYuxin */
     public void write() {
@@ -223,7 +401,8 @@ public class Repository implements Serializable {
                 //e.printStackTrace();
             }
         }
-        Utils.writeObject(repo, this);
+        Utils.writeContents(repo,
+                new Codec.Writer(TAG, VERSION).id(head).string(branch).toByteArray());
     }
 
     /**
@@ -244,16 +423,13 @@ public class Repository implements Serializable {
         }
         Commit cmt = Commit.read(cmtID);
         if (cmt == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw Utils.error("No commit with that id exists.");
         }
         if (!cmt.getBlobs().containsKey(fileName)) {
-            System.out.println("File does not exist in that commit.");
-            System.exit(0);
+            throw Utils.error("File does not exist in that commit.");
         }
         String fileID = cmt.getBlobs().get(fileName);
-        byte[] fileContent = Blob.getBlob(fileID);
-        Utils.writeContents(new File(fileName), fileContent);
+        Blob.checkout(fileID, new File(fileName));
     }
 
     /**
@@ -262,13 +438,11 @@ public class Repository implements Serializable {
      */
     public void checkout(String branchName) {
         if (branchName.equals(branch)) {
-            System.out.println("No need to checkout the current branch.");
-            System.exit(0);
+            throw Utils.error("No need to checkout the current branch.");
         }
         Branch br = Branch.read(branchName);
         if (br == null) {
-            System.out.println("No such branch exists.");
-            System.exit(0);
+            throw Utils.error("No such branch exists.");
         }
         helpCheck(br.getLatestCommit());
         // update repo
@@ -288,20 +462,10 @@ public class Repository implements Serializable {
     private void helpCheck(String commitID) {
         // other branch's latest commit
         Commit cmt = Commit.read(commitID);
-        Set<String> cmtFiles = cmt.getBlobs().keySet();
         // current branch's latest commit
         Commit curCmt = Commit.read(head);
-        Set<String> curCmtFiles = curCmt.getBlobs().keySet();
         checkOverwritten(cmt, curCmt);
-        for (String file : cmtFiles) {
-            byte[] fileContent = Blob.getBlob(cmt.getBlobs().get(file));
-            Utils.writeContents(new File(file), fileContent);
-        }
-        for (String file : curCmtFiles) {
-            if (!cmtFiles.contains(file)) {
-                Utils.restrictedDelete(new File(file));
-            }
-        }
+        Checkout.run(curCmt, cmt);
     }
 
     /**
@@ -309,20 +473,20 @@ public class Repository implements Serializable {
      * @author CuiYuxin
      */
     private void checkOverwritten(Commit otherCmt,  Commit curCmt) {
-        // current directory files
-        List<String> curDirFiles = Utils.plainFilenamesIn(CWD);
-        // other branch's latest files
-        Set<String> cmtFiles = otherCmt.getBlobs().keySet();
-        for (String fileName : curDirFiles) {
-            if (!curCmt.getBlobs().containsKey(fileName)) {
-                if (cmtFiles.contains(fileName)) {
-                    String fileID = otherCmt.getBlobs().get(fileName);
-                    if (!fileID.equals(Utils.readContents(new File(fileName)))) {
-                        System.out.print("There is an untracked file in the way;");
-                        System.out.print(" delete it, or add and commit it first.\n");
-                        System.exit(0);
-                    }
-                }
+        Map<String, String> curBlobs = curCmt.getBlobs();
+        Map<String, String> otherBlobs = otherCmt.getBlobs();
+        // Only files the other commit tracks and this one does not can be
+        // in the way, so they are looked up one by one instead of walking
+        // the whole working tree. Ignored files are not in the way.
+        WorkTree work = new WorkTree();
+        for (String fileName : Commit.changedFiles(curCmt, otherCmt)) {
+            if (curBlobs.containsKey(fileName) || !otherBlobs.containsKey(fileName)
+                    || !work.contains(fileName) || work.ignored(fileName)) {
+                continue;
+            }
+            if (!otherBlobs.get(fileName).equals(work.hash(fileName))) {
+                throw Utils.error("There is an untracked file in the way;"
+                        + " delete it, or add and commit it first.");
             }
         }
     }
@@ -333,8 +497,7 @@ public class Repository implements Serializable {
      */
     public void createBranch(String branchName) {
         if (Branch.allBranches().contains(branchName)) {
-            System.out.println("A branch with that name already exists.");
-            System.exit(0);
+            throw Utils.error("A branch with that name already exists.");
         }
         Branch br = new Branch(branchName, head);
         br.write();
@@ -346,12 +509,10 @@ public class Repository implements Serializable {
      */
     public void removeBranch(String branchName) {
         if (!Branch.allBranches().contains(branchName)) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw Utils.error("A branch with that name does not exist.");
         }
         if (branchName.equals(branch)) {
-            System.out.println("Cannot remove the current branch.");
-            System.exit(0);
+            throw Utils.error("Cannot remove the current branch.");
         }
         Branch.remove(branchName);
     }
@@ -363,12 +524,11 @@ public class Repository implements Serializable {
     public void reset(String commitID) {
         Commit cmt = Commit.read(commitID);
         if (cmt == null) {
-            System.out.println("No commit with that id exists.");
-            System.exit(0);
+            throw Utils.error("No commit with that id exists.");
         }
         helpCheck(commitID);
         // update repo
-        head = Utils.sha1(Utils.serialize(cmt));
+        head = cmt.id();
         write();
         // update stage
         Stage stage = new Stage();
@@ -391,9 +551,15 @@ public class Repository implements Serializable {
         Map<String, String> headBlobs = headCmt.getBlobs();
         Map<String, String> otherBlobs = other.getBlobs();
         Map<String, String> splitBlobs = split.getBlobs();
-        List<String> curFiles = Utils.plainFilenamesIn(CWD);
+        // Files the same in all three commits are left alone, so only the
+        // files changed since the split point are looked at.
+        Set<String> changed = Commit.changedFiles(split, headCmt);
+        changed.addAll(Commit.changedFiles(split, other));
         boolean conflict = false;
-        for (String file : headBlobs.keySet()) {
+        for (String file : changed) {
+            if (!headBlobs.containsKey(file)) {
+                continue;
+            }
             if (splitBlobs.getOrDefault(file, "").equals(headBlobs.get(file))) {
                 if (!otherBlobs.containsKey(file)) { //6
                     stage.rm(file, head);
@@ -422,7 +588,10 @@ public class Repository implements Serializable {
                 }
             }
         }
-        for (String file : otherBlobs.keySet()) {
+        for (String file : changed) {
+            if (!otherBlobs.containsKey(file)) {
+                continue;
+            }
             if (splitBlobs.getOrDefault(file, "").equals(otherBlobs.get(file))) {
                 if (!headBlobs.containsKey(file)) { //7
                     continue;
@@ -471,9 +640,11 @@ public class Repository implements Serializable {
         sb.append(content2);
         sb.append(">>>>>>>\n");
         File conFile = new File(f);
+        if (conFile.getParentFile() != null) {
+            conFile.getParentFile().mkdirs();
+        }
         Utils.writeContents(conFile, sb.toString());
-        Blob conBlob = new Blob(conFile);
-        s.add(f, conBlob.write(), head);
+        s.add(f, Index.get().write(conFile, hB.get(f)), head);
     }
 
     /**
@@ -482,48 +653,32 @@ public class Repository implements Serializable {
      */
     private String checkFailCases(String branchName, Stage stage, Branch otherBranch) {
         if (!stage.isEmpty()) {
-            System.out.println("You have uncommitted changes.");
-            System.exit(0);
+            throw Utils.error("You have uncommitted changes.");
         }
         if (otherBranch == null) {
-            System.out.println("A branch with that name does not exist.");
-            System.exit(0);
+            throw Utils.error("A branch with that name does not exist.");
         }
         if (branch.equals(branchName)) {
-            System.out.println("Cannot merge a branch with itself.");
-            System.exit(0);
+            throw Utils.error("Cannot merge a branch with itself.");
         }
         String splitID = findSplitPoint(head, otherBranch.getLatestCommit());
         if (splitID.equals(otherBranch.getLatestCommit())) {
-            System.out.println("Given branch is an ancestor of the current branch.");
-            System.exit(0);
+            throw Utils.error("Given branch is an ancestor of the current branch.");
         }
         if (splitID.equals(head)) {
             System.out.println("Current branch fast-forwarded.");
             checkout(branchName);
-            System.exit(0);
+            throw new GitletException();
         }
         return splitID;
     }
 
     /**
-     * Find two branches split point.
+     * Find two branches split point: their latest common ancestor,
+     * following both parents of merge commits.
      *  @author CuiYuxin
      */
-    private String findSplitPoint(String cmt1, String cmt2) {
-        List<String> cmt1List = new ArrayList<>();
-        while (!cmt1.equals("")) {
-            cmt1List.add(cmt1);
-            Commit cmt = Commit.read(cmt1);
-            cmt1 = cmt.getParent();
-        }
-        while (!cmt2.equals("")) {
-            if (cmt1List.contains(cmt2)) {
-                return cmt2;
-            }
-            Commit cmt = Commit.read(cmt2);
-            cmt2 = cmt.getParent();
-        }
-        return "";
+    String findSplitPoint(String cmt1, String cmt2) {
+        return CommitGraph.load(cmt1, cmt2).mergeBase(cmt1, cmt2);
     }
 }
@@ -0,0 +1,124 @@
+package gitlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static gitlet.Utils.join;
+
+/**
+ * The gitlet daemon: a long-running process serving the commands of one
+ * repository over a Unix domain socket, .gitlet/daemon.sock, so that they
+ * run in a warm JVM with the decoded commits and blobs, the index and the
+ * object packs already in memory. A request is the command's arguments,
+ * each followed by a NUL byte, after which the client shuts down its side
+ * of the connection; the reply is the command's output. Requests are
+ * served one at a time, as if each had been run on its own.
+ * @author CuiYuxin
+ */
+class Server {
+    /** The socket of the daemon. */
+    static final File SOCKET = join(Repository.GITLET_DIR, "daemon.sock");
+    /** Whether this process is the daemon. */
+    private static boolean serving;
+    /** Whether the daemon has been asked to stop. */
+    private static boolean stopping;
+
+    /**
+     * Serve requests until asked to stop. Refuses to start if a daemon is
+     * already running in the repository.
+     * @author CuiYuxin
+     */
+    static void serve() {
+        SocketChannel other = Client.connect();
+        if (other != null) {
+            try {
+                other.close();
+            } catch (IOException e) {
+                // only checking that it answers
+            }
+            throw Utils.error("A daemon is already running in this repository.");
+        }
+        SOCKET.delete(); // left behind by a daemon that did not stop cleanly
+        PrintStream console = System.out;
+        PrintStream consoleErr = System.err;
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            server.bind(UnixDomainSocketAddress.of(Repository.CWD.toPath().relativize(
+                    SOCKET.toPath())));
+            serving = true;
+            console.println("Serving " + Repository.CWD + " on " + SOCKET.getName() + ".");
+            while (!stopping && Repository.isRepo()) {
+                try (SocketChannel client = server.accept()) {
+                    handle(client);
+                } catch (IOException e) {
+                    // the client went away: nothing to answer
+                } finally {
+                    System.setOut(console);
+                    System.setErr(consoleErr);
+                }
+            }
+        } catch (IOException e) {
+            throw Utils.error("Cannot start the daemon: %s", e.getMessage());
+        } finally {
+            serving = false;
+            SOCKET.delete();
+        }
+    }
+
+    /**
+     * Stop the daemon, if this is it.
+     * @author CuiYuxin
+     */
+    static void stop() {
+        if (!serving) {
+            throw Utils.error("No daemon is running.");
+        }
+        stopping = true;
+        System.out.println("Daemon stopped.");
+    }
+
+    /** Run the command sent by CLIENT, sending back its output. */
+    private static void handle(SocketChannel client) throws IOException {
+        String[] args = readArgs(Channels.newInputStream(client));
+        Blob.STORE.refresh();
+        Commit.STORE.refresh();
+        Tree.STORE.refresh();
+        Index.refresh();
+        PrintStream out = new PrintStream(Channels.newOutputStream(client), false,
+                StandardCharsets.UTF_8);
+        System.setOut(out);
+        System.setErr(out); // where --timings reports go
+        try {
+            Main.run(args);
+        } catch (RuntimeException e) {
+            System.out.println(e.getMessage() != null ? e.getMessage() : e.toString());
+        }
+        out.flush();
+    }
+
+    /** Return the NUL-terminated arguments read from IN until it ends. */
+    private static String[] readArgs(InputStream in) throws IOException {
+        byte[] request = in.readAllBytes();
+        List<String> args = new ArrayList<>();
+        ByteArrayOutputStream arg = new ByteArrayOutputStream();
+        for (byte b : request) {
+            if (b == 0) {
+                args.add(arg.toString(StandardCharsets.UTF_8));
+                arg.reset();
+            } else {
+                arg.write(b);
+            }
+        }
+        return args.toArray(new String[0]);
+    }
+}
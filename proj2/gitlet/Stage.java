@@ -1,20 +1,57 @@
 package gitlet;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
 
+/**
+ * Represents the staging area. The stage file holds a snapshot of the
+ * staged files and removals followed by a journal: add and rm append one
+ * record per file they change instead of rewriting the whole file, and
+ * reading the stage replays the records over the snapshot. Clearing the
+ * stage, as commit does, writes a new snapshot with no journal, and so
+ * does any write once the journal has grown much longer than the stage.
+ * @author CuiYuxin
+ */
 public class Stage implements Serializable {
+    /** Pinned so that files written by earlier versions stay readable. */
+    private static final long serialVersionUID = -7907983930151224771L;
     /** The current working directory. */
     public static final File CWD = new File(System.getProperty("user.dir"));
+    /** The Codec tag of the stage. */
+    private static final int TAG = 's';
+    /** The Codec format version of the stage. Version 1 has no journal. */
+    private static final int VERSION = 2;
+    /** Journal record: a file staged, followed by its blob. */
+    private static final int STAGED = 'a';
+    /** Journal record: a file staged for removal. */
+    private static final int REMOVED = 'r';
+    /** Journal record: a file neither staged nor removed any more. */
+    private static final int UNSTAGED = 'u';
+    /** The journal records allowed beyond twice the entries of the stage
+     *  before it is compacted. */
+    private static final int SLACK = 64;
     /** The stage map. */
     private Map<String, String> blobmap = new java.util.HashMap<>();
     /** Remove filename. Key:filename Value:SHA1 */
     private List<String> removeFile = new ArrayList<>();
+    /** The journal records not written yet. */
+    private transient Codec.Writer journal = new Codec.Writer();
+    /** The number of records in JOURNAL. */
+    private transient int pending;
+    /** The number of journal records in the stage file. */
+    private transient int records;
+    /** Whether the stage file must be rewritten rather than appended to. */
+    private transient boolean rewrite;
 
     /**
      * Constructor for Stage.
@@ -23,16 +60,86 @@ public class Stage implements Serializable {
     public Stage() {
         File stagefile = new File(".gitlet/stage");
         if (!stagefile.exists()) {
-            try {
-                stagefile.createNewFile();
-                write();
-            } catch (IOException e) {
-                //e.printStackTrace();
-            }
+            rewrite = true;
+            write();
         } else {
-            this.blobmap = Utils.readObject(stagefile, Stage.class).blobmap;
-            this.removeFile = Utils.readObject(stagefile, Stage.class).removeFile;
+            long start = Trace.start();
+            byte[] contents = Utils.readContents(stagefile);
+            decode(contents);
+            Trace.end(Trace.STAGE_READ, start, contents.length);
+        }
+    }
+
+    /** Create an empty Stage without touching the stage file. */
+    private Stage(int capacity) {
+        blobmap = new java.util.HashMap<>(capacity);
+        rewrite = true;
+    }
+
+    /** Return the Codec encoding of this Stage.
+     *  @author CuiYuxin
+     */
+    byte[] encode() {
+        Codec.Writer w = new Codec.Writer(TAG, VERSION).idMap(blobmap);
+        w.varint(removeFile.size());
+        for (String fileName : removeFile) {
+            w.string(fileName);
+        }
+        return w.toByteArray();
+    }
+
+    /** Replace the contents of this Stage with those encoded in CONTENTS,
+     *  replaying the journal that follows the snapshot. */
+    private void decode(byte[] contents) {
+        Codec.Reader r = new Codec.Reader(contents, TAG, VERSION);
+        blobmap = r.idMap(new java.util.HashMap<>());
+        Set<String> removed = new LinkedHashSet<>();
+        for (long n = r.varint(); n > 0; n -= 1) {
+            removed.add(r.string());
+        }
+        records = 0;
+        try {
+            while (!r.atEnd()) {
+                int op = (int) r.varint();
+                String fileName = r.string();
+                switch (op) {
+                    case STAGED:
+                        blobmap.put(fileName, r.id());
+                        removed.remove(fileName);
+                        break;
+                    case REMOVED:
+                        blobmap.remove(fileName);
+                        removed.add(fileName);
+                        break;
+                    case UNSTAGED:
+                        blobmap.remove(fileName);
+                        removed.remove(fileName);
+                        break;
+                    default:
+                        throw Utils.error("Corrupt stage: bad record %d.", op);
+                }
+                records += 1;
+            }
+        } catch (GitletException e) {
+            // The last record was cut short by a crash: it is dropped, and
+            // the next write must not append after it.
+            rewrite = true;
+        }
+        removeFile = new ArrayList<>(removed);
+    }
+
+    /** Return the stage as written by earlier versions, with its blob IDs
+     *  renamed by BLOBS (old ID -> new ID), for migration.
+     *  @author CuiYuxin
+     */
+    static Stage readLegacy(Map<String, String> blobs) {
+        Stage legacy = Utils.readObject(new File(".gitlet/stage"), Stage.class);
+        Stage stage = new Stage(legacy.blobmap.size());
+        for (Map.Entry<String, String> entry : legacy.blobmap.entrySet()) {
+            stage.blobmap.put(entry.getKey(), blobs.get(entry.getValue()));
         }
+        stage.removeFile.addAll(legacy.removeFile);
+        return stage;
     }
 
     /**
@@ -58,15 +165,13 @@ public class Stage implements Serializable {
     public void add(String fileName, String blobName, String head) {
         Commit headObj = Commit.read(head);
         Map<String, String> oldBlobs = headObj.getBlobs();
-        if (removeFile.contains(fileName)) {
-            removeFile.remove(fileName);
-        }
+        boolean wasRemoved = removeFile.remove(fileName);
         if (oldBlobs.getOrDefault(fileName, "").equals(blobName)) {
-            if (this.blobmap.containsKey(fileName)) {
-                this.blobmap.remove(fileName);
+            if (this.blobmap.remove(fileName) != null || wasRemoved) {
+                log(UNSTAGED, fileName, null);
             }
-        } else {
-            this.blobmap.put(fileName, blobName);
+        } else if (!blobName.equals(this.blobmap.put(fileName, blobName)) || wasRemoved) {
+            log(STAGED, fileName, blobName);
         }
     }
 
@@ -83,37 +188,73 @@ public class Stage implements Serializable {
      * @author CuiYuxin
      */
     public void rm(String fileName, String head) {
-        boolean fail = true;
-        if (this.blobmap.containsKey(fileName)) {
-            fail = false;
-            this.blobmap.remove(fileName);
-        }
+        boolean staged = this.blobmap.remove(fileName) != null;
         Commit headObj = Commit.read(head);
         if (headObj.getBlobs().containsKey(fileName)) {
-            fail = false;
-            removeFile.add(fileName);
-            Utils.restrictedDelete(fileName);
+            if (!removeFile.contains(fileName)) {
+                removeFile.add(fileName);
+            }
+            log(REMOVED, fileName, null);
+            WorkTree.delete(fileName);
+        } else if (staged) {
+            log(UNSTAGED, fileName, null);
+        } else {
+            throw Utils.error("No reason to remove the file.");
         }
-        if (fail) {
-            System.out.println("No reason to remove the file.");
-            System.exit(0);
+    }
+
+    /** Add a journal record of kind OP for FILENAME, with BLOB if it is
+     *  not null. */
+    private void log(int op, String fileName, String blob) {
+        journal.varint(op).string(fileName);
+        if (blob != null) {
+            journal.id(blob);
         }
+        pending += 1;
     }
 
-    /** Write the stage status to disk.
+    /** Write the stage status to disk: append the changes made since it
+     *  was read, or write it whole if the journal has grown too long.
      *  @author CuiYuxin
      */
     public void write() {
+        if (!rewrite && pending == 0) {
+            return;
+        }
+        long start = Trace.start();
         File stageFile = new File(".gitlet/stage");
-        Utils.writeObject(stageFile, this);
+        int size = journal.size();
+        if (!rewrite && records + pending <= 2 * (blobmap.size() + removeFile.size()) + SLACK) {
+            try (FileOutputStream out = new FileOutputStream(stageFile, true)) {
+                out.write(journal.toByteArray());
+                records += pending;
+            } catch (IOException e) {
+                rewrite = true;
+            }
+        } else {
+            rewrite = true;
+        }
+        if (rewrite) {
+            byte[] contents = encode();
+            Utils.writeContentsAtomically(stageFile, contents);
+            size = contents.length;
+            records = 0;
+            rewrite = false;
+        }
+        journal = new Codec.Writer();
+        pending = 0;
+        Trace.end(Trace.STAGE_WRITE, start, size);
     }
 
-    /** Clean the stage.
+    /** Clean the stage and write it, without a journal.
      *  @author CuiYuxin
      */
     public void clear() {
         blobmap = new java.util.HashMap<>();
         removeFile = new ArrayList<>();
+        journal = new Codec.Writer();
+        pending = 0;
+        rewrite = true;
         this.write();
     }
 
@@ -135,35 +276,42 @@ public class Stage implements Serializable {
         return files;
     }
 
-    /** Return modified but not staged for commit filename and type.
+    /** Return modified but not staged for commit filename and type, given
+     *  the working tree WORK. Only tracked files are looked at.
      *  @author CuiYuxin
      */
-    public String[] getUnstagedFiles(String head) {
+    public String[] getUnstagedFiles(String head, WorkTree work) {
         List<String> unstaged = new ArrayList<>();
-        List<String> allFiles = Utils.plainFilenamesIn(CWD);
-        Commit headObj = Commit.read(head);
-        for (String file : allFiles) {
-            File f = new File(file);
-            Blob b = new Blob(f);
-            String sha1 = Utils.sha1(Utils.serialize(b));
-            if (headObj.getBlobs().containsKey(file) && !blobmap.containsKey(file)) {
-                if (!sha1.equals(headObj.getBlobs().get(file))) {
-                    unstaged.add(file + " (modified)");
-                }
-            } else if (blobmap.containsKey(file) && !sha1.equals(blobmap.get(file))) {
-                unstaged.add(file + " (modified)");
+        Map<String, String> headBlobs = Commit.read(head).getBlobs();
+        Set<String> removed = new HashSet<>(removeFile);
+        // The file each tracked file is compared with: staged or committed.
+        List<String> tracked = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (Map.Entry<String, String> e : blobmap.entrySet()) {
+            if (work.contains(e.getKey())) {
+                tracked.add(e.getKey());
+                expected.add(e.getValue());
+            } else {
+                unstaged.add(e.getKey() + " (deleted)");
             }
         }
-        for (String file : blobmap.keySet()) {
-            if (!allFiles.contains(file)) {
-                unstaged.add(file + " (deleted)");
+        for (Map.Entry<String, String> e : headBlobs.entrySet()) {
+            if (blobmap.containsKey(e.getKey())) {
+                continue;
+            }
+            if (work.contains(e.getKey())) {
+                tracked.add(e.getKey());
+                expected.add(e.getValue());
+            } else if (!removed.contains(e.getKey())) {
+                unstaged.add(e.getKey() + " (deleted)");
             }
         }
-        for (String file : headObj.getBlobs().keySet()) {
-            if (!allFiles.contains(file) && !removeFile.contains(file)) {
-                if (!unstaged.contains(file + " (deleted)")) {
-                    unstaged.add(file + " (deleted)");
-                }
+        boolean[] modified = new boolean[tracked.size()];
+        IntStream.range(0, modified.length).parallel().forEach(i ->
+                modified[i] = !work.hash(tracked.get(i)).equals(expected.get(i)));
+        for (int i = 0; i < modified.length; i += 1) {
+            if (modified[i]) {
+                unstaged.add(tracked.get(i) + " (modified)");
             }
         }
         String[] files = unstaged.toArray(new String[0]);
@@ -171,26 +319,19 @@ public class Stage implements Serializable {
         return files;
     }
 
-    /** Return the untracked filename.
+    /** Return the untracked filename, given the working tree WORK.
      *  @author CuiYuxin
      */
-    public String[] getUntrackedFiles(String head) {
+    public String[] getUntrackedFiles(String head, WorkTree work) {
         List<String> untracked = new ArrayList<>();
-        List<String> allFiles = Utils.plainFilenamesIn(CWD);
-        Commit headCmt = Commit.read(head);
-        for (String file : allFiles) {
-            if (!this.blobmap.containsKey(file)) {
-                if (!headCmt.getBlobs().containsKey(file)) {
-                    untracked.add(file);
-                } else {
-                    if (this.removeFile.contains(file)) {
-                        untracked.add(file);
-                    }
-                }
+        Map<String, String> headBlobs = Commit.read(head).getBlobs();
+        Set<String> removed = new HashSet<>(removeFile);
+        for (String file : work.paths()) {
+            if (!this.blobmap.containsKey(file)
+                    && (!headBlobs.containsKey(file) || removed.contains(file))) {
+                untracked.add(file);
             }
         }
-        String[] files = untracked.toArray(new String[0]);
-        Arrays.sort(files);
-        return files;
+        return untracked.toArray(new String[0]);
     }
 }
@@ -0,0 +1,197 @@
+package gitlet;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts how many times each instrumented operation ran during a command,
+ * the bytes it handled and the nanoseconds it took, and reports them,
+ * with the hits and misses of the object caches, when the command ends.
+ * Times are inclusive: a commit.read that misses the cache includes the
+ * commit.load it causes. Tracing is turned on for every command by the
+ * GITLET_TRACE environment variable, "json" for a JSON object and any
+ * other value but 0 for a table, or for one command by a --timings or
+ * --timings=json option before the command name. The report goes to
+ * System.err. While tracing is off, an instrumented operation only reads
+ * a static field.
+ * @author CuiYuxin
+ */
+class Trace {
+    /** A whole command. */
+    static final int COMMAND = 0;
+    /** Commit.read, cached or not. */
+    static final int COMMIT_READ = 1;
+    /** Reading and decoding a commit missing from the cache. */
+    static final int COMMIT_LOAD = 2;
+    /** Writing a commit. */
+    static final int COMMIT_WRITE = 3;
+    /** Blob.getBlob, cached or not. */
+    static final int BLOB_GET = 4;
+    /** Reading a blob missing from the cache. */
+    static final int BLOB_LOAD = 5;
+    /** Hashing contents without storing them. */
+    static final int BLOB_HASH = 6;
+    /** Hashing and storing contents whole. */
+    static final int BLOB_WRITE = 7;
+    /** Computing a delta between two blobs. */
+    static final int DELTA_CREATE = 8;
+    /** Storing a blob as a delta. */
+    static final int BLOB_DELTA = 9;
+    /** Reading the stage. */
+    static final int STAGE_READ = 10;
+    /** Writing the stage. */
+    static final int STAGE_WRITE = 11;
+    /** Utils.sha1. */
+    static final int SHA1 = 12;
+    /** Reading a tree node missing from the cache. */
+    static final int TREE_LOAD = 13;
+    /** Writing the tree of a commit. */
+    static final int TREE_WRITE = 14;
+    /** The names of the operations, as reported. */
+    private static final String[] NAMES = {
+        "command", "commit.read", "commit.load", "commit.write", "blob.get", "blob.load",
+        "blob.hash", "blob.write", "delta.create", "blob.delta", "stage.read", "stage.write",
+        "sha1", "tree.load", "tree.write",
+    };
+    /** The names of the caches, as reported: commits, blobs, tree nodes
+     *  and the files of whole trees. */
+    private static final String[] CACHE_NAMES = {"commit", "blob", "tree", "tree.files"};
+
+    /** The report format asked for by GITLET_TRACE, or null. */
+    private static final String ENV_FORMAT = envFormat();
+    /** The number of times each operation ran. */
+    private static final AtomicLongArray COUNTS = new AtomicLongArray(NAMES.length);
+    /** The bytes each operation handled. */
+    private static final AtomicLongArray BYTES = new AtomicLongArray(NAMES.length);
+    /** The nanoseconds each operation took. */
+    private static final AtomicLongArray NANOS = new AtomicLongArray(NAMES.length);
+    /** Whether the current command is traced. */
+    private static boolean on;
+    /** Whether to report JSON rather than a table. */
+    private static boolean json;
+    /** The hits and misses of each cache when the command started. */
+    private static long[] cachesBefore;
+
+    /**
+     * Start tracing the command ARGS if it asks for it or GITLET_TRACE is
+     * set, and return ARGS without the --timings option.
+     * @author CuiYuxin
+     */
+    static String[] begin(String[] args) {
+        String format = ENV_FORMAT;
+        if (args.length > 0 && args[0].startsWith("--timings")) {
+            format = args[0].equals("--timings=json") ? "json" : "text";
+            String[] rest = new String[args.length - 1];
+            System.arraycopy(args, 1, rest, 0, rest.length);
+            args = rest;
+        }
+        on = format != null;
+        if (on) {
+            json = format.equals("json");
+            for (int i = 0; i < NAMES.length; i += 1) {
+                COUNTS.set(i, 0);
+                BYTES.set(i, 0);
+                NANOS.set(i, 0);
+            }
+            cachesBefore = caches();
+        }
+        return args;
+    }
+
+    /**
+     * Return the time an operation starts at, or 0 if tracing is off.
+     * @author CuiYuxin
+     */
+    static long start() {
+        return on ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record that operation OP, which started at START and handled BYTES
+     * bytes, has ended. Does nothing if START is 0.
+     * @author CuiYuxin
+     */
+    static void end(int op, long start, long bytes) {
+        if (start != 0) {
+            long nanos = System.nanoTime() - start;
+            COUNTS.incrementAndGet(op);
+            BYTES.addAndGet(op, bytes);
+            NANOS.addAndGet(op, nanos);
+        }
+    }
+
+    /**
+     * Report on the command ARGS, if it was traced, and stop tracing.
+     * @author CuiYuxin
+     */
+    static void report(String[] args) {
+        if (!on) {
+            return;
+        }
+        on = false;
+        long[] caches = caches();
+        for (int i = 0; i < caches.length; i += 1) {
+            caches[i] -= cachesBefore[i];
+        }
+        String command = String.join(" ", args);
+        PrintStream err = System.err;
+        if (json) {
+            List<String> ops = new ArrayList<>();
+            for (int i = 1; i < NAMES.length; i += 1) {
+                if (COUNTS.get(i) > 0) {
+                    ops.add(String.format("\"%s\": {\"count\": %d, \"bytes\": %d, \"ms\": %.3f}",
+                            NAMES[i], COUNTS.get(i), BYTES.get(i), NANOS.get(i) / 1e6));
+                }
+            }
+            List<String> cacheStats = new ArrayList<>();
+            for (int i = 0; i < CACHE_NAMES.length; i += 1) {
+                cacheStats.add(String.format("\"%s\": {\"hits\": %d, \"misses\": %d}",
+                        CACHE_NAMES[i], caches[2 * i], caches[2 * i + 1]));
+            }
+            err.printf("{\"command\": \"%s\", \"ms\": %.3f, \"operations\": {%s}, "
+                    + "\"caches\": {%s}}%n",
+                    command.replace("\\", "\\\\").replace("\"", "\\\""),
+                    NANOS.get(COMMAND) / 1e6, String.join(", ", ops),
+                    String.join(", ", cacheStats));
+        } else {
+            err.printf("trace: %s: %.3f ms%n", command, NANOS.get(COMMAND) / 1e6);
+            err.printf("  %-14s %8s %14s %12s%n", "operation", "count", "bytes", "ms");
+            for (int i = 1; i < NAMES.length; i += 1) {
+                if (COUNTS.get(i) > 0) {
+                    err.printf("  %-14s %8d %14d %12.3f%n", NAMES[i], COUNTS.get(i),
+                            BYTES.get(i), NANOS.get(i) / 1e6);
+                }
+            }
+            err.printf("  %-14s %8s %14s%n", "cache", "hits", "misses");
+            for (int i = 0; i < CACHE_NAMES.length; i += 1) {
+                err.printf("  %-14s %8d %14d%n", CACHE_NAMES[i], caches[2 * i],
+                        caches[2 * i + 1]);
+            }
+        }
+        err.flush();
+    }
+
+    /** Return the hits and misses of each cache, in the order of
+     *  CACHE_NAMES. */
+    private static long[] caches() {
+        ObjectCache<?>[] all = {Commit.CACHE, Blob.CACHE, Tree.CACHE, Tree.FILES};
+        long[] counts = new long[2 * all.length];
+        for (int i = 0; i < all.length; i += 1) {
+            counts[2 * i] = all[i].hits();
+            counts[2 * i + 1] = all[i].misses();
+        }
+        return counts;
+    }
+
+    /** Return the format GITLET_TRACE asks for, or null if it is unset or
+     *  0. */
+    private static String envFormat() {
+        String value = System.getenv("GITLET_TRACE");
+        if (value == null || value.equals("") || value.equals("0")) {
+            return null;
+        }
+        return value.equals("json") ? "json" : "text";
+    }
+}
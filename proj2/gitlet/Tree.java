@@ -0,0 +1,321 @@
+package gitlet;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.BiConsumer;
+
+import static gitlet.Utils.join;
+
+/**
+ * Represents a tree object: a node of the search tree that maps the paths
+ * tracked by a commit to their blobs. A leaf (level 0) holds a run of
+ * paths, sorted, with their blobs; a node at level L holds the first path
+ * and the ID of each of a run of nodes at level L - 1. Where a run ends is
+ * decided by the hash of the path or first path that ends it, not by its
+ * position, so adding, changing or removing a file only changes the leaf
+ * it falls in and the nodes above it: every other node keeps its contents,
+ * and so its ID, and is shared with the trees of other commits. Two trees
+ * are compared by skipping the nodes they share.
+ * @author CuiYuxin
+ */
+class Tree {
+    /** The tree directory. */
+    static final File TREE_DIR = join(Repository.GITLET_DIR, "trees");
+    /** The tree store. */
+    static final ObjectStore STORE = new ObjectStore(TREE_DIR);
+    /** Decoded nodes, shared by everything a command does. */
+    static final ObjectCache<Tree> CACHE = new ObjectCache<>(16 << 20, t -> t.encodedSize);
+    /** The files of whole trees. Key: root ID */
+    static final ObjectCache<Map<String, String>> FILES =
+            new ObjectCache<>(64 << 20, m -> 96L * m.size() + 64);
+    /** The Codec tag of trees. */
+    private static final int TAG = 't';
+    /** The Codec format version of trees. */
+    private static final int VERSION = 1;
+    /** The number of low bits of a hash that must be zero to end a run:
+     *  nodes hold 64 entries on average. */
+    private static final int FANOUT_BITS = 6;
+
+    /** The level of this node, 0 for a leaf. */
+    private final int level;
+    /** The paths of a leaf, or the first path under each child, sorted. */
+    private final String[] keys;
+    /** The blob of each path of a leaf, or the ID of each child. */
+    private final String[] ids;
+    /** The size of the stored form of this node. */
+    private int encodedSize;
+    /** The ID of this node, once read or written. */
+    private String id;
+
+    /** A node at LEVEL holding KEYS and IDS. */
+    private Tree(int level, String[] keys, String[] ids) {
+        this.level = level;
+        this.keys = keys;
+        this.ids = ids;
+    }
+
+    /**
+     * Write the tree of FILES (path -> blob) and return the ID of its root.
+     * Nodes that already exist are not written again, and those equal to a
+     * node of the tree whose root is BASE, if it is not "", are not even
+     * encoded: a commit usually differs from its parent in a few nodes.
+     * @author CuiYuxin
+     */
+    static String write(Map<String, String> files, String base) {
+        long start = Trace.start();
+        Map<String, Tree> known = new HashMap<>();
+        String[] keys;
+        if (base.equals("")) {
+            keys = files.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+        } else {
+            collect(base, known);
+            keys = sortedKeys(files, base);
+        }
+        String[] ids = new String[keys.length];
+        for (int i = 0; i < keys.length; i += 1) {
+            ids[i] = files.get(keys[i]);
+        }
+        for (int level = 0;; level += 1) {
+            List<String> upKeys = new ArrayList<>();
+            List<String> upIds = new ArrayList<>();
+            int first = 0;
+            for (int i = 0; i < keys.length; i += 1) {
+                if (i == keys.length - 1 || endsRun(keys[i], level)) {
+                    Tree node = new Tree(level, Arrays.copyOfRange(keys, first, i + 1),
+                            Arrays.copyOfRange(ids, first, i + 1));
+                    Tree old = known.get(level + "\0" + keys[first]);
+                    upKeys.add(keys[first]);
+                    upIds.add(node.sameAs(old) ? old.id : node.store());
+                    first = i + 1;
+                }
+            }
+            if (upIds.size() <= 1) {
+                Trace.end(Trace.TREE_WRITE, start, 0);
+                return upIds.isEmpty() ? new Tree(0, keys, ids).store() : upIds.get(0);
+            }
+            keys = upKeys.toArray(new String[0]);
+            ids = upIds.toArray(new String[0]);
+        }
+    }
+
+    /**
+     * Return the files (path -> blob) of the tree whose root is ROOT. The
+     * map is shared: it must not be modified.
+     * @author CuiYuxin
+     */
+    static Map<String, String> files(String root) {
+        return FILES.get(root, r -> {
+            Map<String, String> files = new HashMap<>();
+            forEachFile(r, new HashSet<>(), files::put);
+            return files;
+        });
+    }
+
+    /**
+     * Call ACTION with the path and blob of each file of the tree whose
+     * root is ROOT, skipping the nodes in SEEN and adding the others to it.
+     * Walking the trees of many commits with one SEEN visits each shared
+     * node once.
+     * @author CuiYuxin
+     */
+    static void forEachFile(String root, Set<String> seen, BiConsumer<String, String> action) {
+        if (!seen.add(root)) {
+            return;
+        }
+        Tree node = read(root);
+        for (int i = 0; i < node.keys.length; i += 1) {
+            if (node.level == 0) {
+                action.accept(node.keys[i], node.ids[i]);
+            } else {
+                forEachFile(node.ids[i], seen, action);
+            }
+        }
+    }
+
+    /**
+     * Return the paths whose blobs differ between the trees whose roots
+     * are A and B, including the paths only one of them tracks, sorted.
+     * Only the nodes that are not in both trees are read.
+     * @author CuiYuxin
+     */
+    static Set<String> changed(String a, String b) {
+        List<String> left = List.of(a);
+        List<String> right = List.of(b);
+        int leftLevel = read(a).level;
+        int rightLevel = read(b).level;
+        for (; leftLevel > rightLevel; leftLevel -= 1) {
+            left = children(left);
+        }
+        for (; rightLevel > leftLevel; rightLevel -= 1) {
+            right = children(right);
+        }
+        // A node in both trees holds the same files in both, and a path is
+        // in one node of each tree, so shared nodes can be dropped.
+        for (int level = leftLevel;; level -= 1) {
+            Set<String> shared = new HashSet<>(left);
+            shared.retainAll(right);
+            left = without(left, shared);
+            right = without(right, shared);
+            if (level == 0) {
+                break;
+            }
+            left = children(left);
+            right = children(right);
+        }
+        Map<String, String> leftFiles = leafFiles(left);
+        Map<String, String> rightFiles = leafFiles(right);
+        Set<String> paths = new TreeSet<>();
+        for (Map.Entry<String, String> e : leftFiles.entrySet()) {
+            if (!e.getValue().equals(rightFiles.get(e.getKey()))) {
+                paths.add(e.getKey());
+            }
+        }
+        for (String path : rightFiles.keySet()) {
+            if (!leftFiles.containsKey(path)) {
+                paths.add(path);
+            }
+        }
+        return paths;
+    }
+
+    /** Return the paths of FILES, sorted, taking the order of those the
+     *  tree whose root is BASE has from its leaves and only sorting the
+     *  others. */
+    private static String[] sortedKeys(Map<String, String> files, String base) {
+        Map<String, String> baseFiles = files(base);
+        List<String> added = new ArrayList<>();
+        for (String path : files.keySet()) {
+            if (!baseFiles.containsKey(path)) {
+                added.add(path);
+            }
+        }
+        added.sort(null);
+        String[] keys = new String[files.size()];
+        int[] n = {0, 0}; // keys filled, added merged
+        forEachFile(base, new HashSet<>(), (path, blob) -> {
+            if (!files.containsKey(path)) {
+                return;
+            }
+            while (n[1] < added.size() && added.get(n[1]).compareTo(path) < 0) {
+                keys[n[0]++] = added.get(n[1]++);
+            }
+            keys[n[0]++] = path;
+        });
+        while (n[1] < added.size()) {
+            keys[n[0]++] = added.get(n[1]++);
+        }
+        return keys;
+    }
+
+    /** Add the nodes of the tree whose root is ROOT to NODES, keyed by
+     *  their level and first path. */
+    private static void collect(String root, Map<String, Tree> nodes) {
+        Tree node = read(root);
+        if (node.keys.length == 0) {
+            return;
+        }
+        nodes.put(node.level + "\0" + node.keys[0], node);
+        if (node.level > 0) {
+            for (String child : node.ids) {
+                collect(child, nodes);
+            }
+        }
+    }
+
+    /**
+     * Read node ID.
+     * @author CuiYuxin
+     */
+    static Tree read(String id) {
+        return CACHE.get(id, Tree::load);
+    }
+
+    /** Read node ID from the store. */
+    private static Tree load(String id) {
+        long start = Trace.start();
+        byte[] contents = STORE.read(id);
+        if (contents == null) {
+            throw Utils.error("Missing tree %s.", id);
+        }
+        Codec.Reader r = new Codec.Reader(contents, TAG, VERSION);
+        int level = (int) r.varint();
+        int n = (int) r.varint();
+        String[] keys = new String[n];
+        String[] ids = new String[n];
+        for (int i = 0; i < n; i += 1) {
+            keys[i] = r.string();
+            ids[i] = r.id();
+        }
+        Tree node = new Tree(level, keys, ids);
+        node.encodedSize = contents.length;
+        node.id = id;
+        Trace.end(Trace.TREE_LOAD, start, contents.length);
+        return node;
+    }
+
+    /** Write this node, unless it already exists, and return its ID. */
+    private String store() {
+        Codec.Writer w = new Codec.Writer(TAG, VERSION);
+        w.varint(level).varint(keys.length);
+        for (int i = 0; i < keys.length; i += 1) {
+            w.string(keys[i]).id(ids[i]);
+        }
+        byte[] contents = w.toByteArray();
+        id = Utils.sha1(contents);
+        STORE.write(id, contents);
+        return id;
+    }
+
+    /** Return whether OTHER is a node with the same level and entries. */
+    private boolean sameAs(Tree other) {
+        return other != null && level == other.level && Arrays.equals(keys, other.keys)
+                && Arrays.equals(ids, other.ids);
+    }
+
+    /** Return whether KEY ends a run of entries at LEVEL. Each level mixes
+     *  in its own constant, so runs do not all end at the same keys. */
+    private static boolean endsRun(String key, int level) {
+        int h = (key.hashCode() + level * 0x61c88647) * 0x9e3779b9;
+        return h >>> (Integer.SIZE - FANOUT_BITS) == 0;
+    }
+
+    /** Return the children of the nodes NODES, in order. */
+    private static List<String> children(List<String> nodes) {
+        List<String> children = new ArrayList<>();
+        for (String id : nodes) {
+            children.addAll(Arrays.asList(read(id).ids));
+        }
+        return children;
+    }
+
+    /** Return NODES without those in SHARED. */
+    private static List<String> without(List<String> nodes, Set<String> shared) {
+        List<String> rest = new ArrayList<>();
+        for (String id : nodes) {
+            if (!shared.contains(id)) {
+                rest.add(id);
+            }
+        }
+        return rest;
+    }
+
+    /** Return the files of the leaves LEAVES. */
+    private static Map<String, String> leafFiles(List<String> leaves) {
+        Map<String, String> files = new HashMap<>();
+        for (String id : leaves) {
+            Tree leaf = read(id);
+            for (int i = 0; i < leaf.keys.length; i += 1) {
+                files.put(leaf.keys[i], leaf.ids[i]);
+            }
+        }
+        return files;
+    }
+}
@@ -1,6 +1,7 @@
 package gitlet;
 
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -11,6 +12,7 @@ import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -36,13 +38,18 @@ class Utils {
     /** Returns the SHA-1 hash of the concatenation of VALS, which may
      *  be any mixture of byte arrays and Strings. */
     static String sha1(Object... vals) {
+        long start = Trace.start();
+        long bytes = 0;
         try {
             MessageDigest md = MessageDigest.getInstance("SHA-1");
             for (Object val : vals) {
                 if (val instanceof byte[]) {
                     md.update((byte[]) val);
+                    bytes += ((byte[]) val).length;
                 } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+                    byte[] b = ((String) val).getBytes(StandardCharsets.UTF_8);
+                    md.update(b);
+                    bytes += b.length;
                 } else {
                     throw new IllegalArgumentException("improper type to sha1");
                 }
@@ -51,6 +58,7 @@ class Utils {
             for (byte b : md.digest()) {
                 result.format("%02x", b);
             }
+            Trace.end(Trace.SHA1, start, bytes);
             return result.toString();
         } catch (NoSuchAlgorithmException excp) {
             throw new IllegalArgumentException("System does not support SHA-1");
@@ -63,6 +71,41 @@ class Utils {
         return sha1(vals.toArray(new Object[vals.size()]));
     }
 
+    /** Returns a new SHA-1 MessageDigest, for hashing data that arrives
+     *  a piece at a time. */
+    static MessageDigest sha1Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    }
+
+    /** Returns the lower-case hexadecimal numeral of the bytes in RAW. */
+    static String toHex(byte[] raw) {
+        char[] digits = new char[raw.length * 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            digits[2 * i] = Character.forDigit((raw[i] >> 4) & 0xf, 16);
+            digits[2 * i + 1] = Character.forDigit(raw[i] & 0xf, 16);
+        }
+        return new String(digits);
+    }
+
+    /** Returns the bytes denoted by the hexadecimal numeral HEX, which
+     *  must have an even number of digits. */
+    static byte[] fromHex(String hex) {
+        byte[] raw = new byte[hex.length() / 2];
+        for (int i = 0; i < raw.length; i += 1) {
+            int hi = Character.digit(hex.charAt(2 * i), 16);
+            int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (hi < 0 || lo < 0) {
+                throw new NumberFormatException("Not a hexadecimal numeral: " + hex);
+            }
+            raw[i] = (byte) (hi << 4 | lo);
+        }
+        return raw;
+    }
+
     /* FILE DELETION */
 
     /** Deletes FILE if it exists and is not a directory.  Returns true
@@ -136,6 +179,22 @@ class Utils {
         }
     }
 
+    /** Replace the contents of FILE with CONTENTS atomically: they are
+     *  written to a temporary file beside it that is then renamed over it,
+     *  so readers see either the old or the new contents, never a mix.
+     *  Throws IllegalArgumentException in case of problems. */
+    static void writeContentsAtomically(File file, byte[] contents) {
+        File tmp = new File(file.getPath() + ".tmp");
+        writeContents(tmp, contents);
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            tmp.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Return an object of type T read from FILE, casting it to EXPECTEDCLASS.
      *  Throws IllegalArgumentException in case of problems. */
     static <T extends Serializable> T readObject(File file,
@@ -152,6 +211,23 @@ class Utils {
         }
     }
 
+    /** Return an object of type T read from the serialized bytes CONTENTS,
+     *  casting it to EXPECTEDCLASS.  Throws IllegalArgumentException in
+     *  case of problems. */
+    static <T extends Serializable> T deserialize(byte[] contents,
+                                                  Class<T> expectedClass) {
+        try {
+            ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(contents));
+            T result = expectedClass.cast(in.readObject());
+            in.close();
+            return result;
+        } catch (IOException | ClassCastException
+                 | ClassNotFoundException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+    }
+
     /** Write OBJ to FILE. */
     static void writeObject(File file, Serializable obj) {
         writeContents(file, serialize(obj));
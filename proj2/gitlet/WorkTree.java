@@ -0,0 +1,342 @@
+package gitlet;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Represents the working tree: the plain files under the working
+ * directory, named by their paths relative to it with "/" between
+ * directories, and the stat data they had when found. scan walks a
+ * directory in parallel, one fork-join task per subdirectory, taking the
+ * stat data of each entry from the directory walk itself so that it can
+ * be handed to the Index without a second stat. The walk skips .gitlet
+ * directories and whatever the .gitletignore files of the directories
+ * above an entry ignore. Files that were not found by a scan, such as
+ * tracked files under an ignored directory, are looked up one by one.
+ *
+ * Each line of a .gitletignore file is a glob, as for PathMatcher, except
+ * for blank lines and lines starting with "#". A glob with no "/" is
+ * matched against the name of every file and directory below the
+ * directory holding the .gitletignore; one with a "/" is matched against
+ * the path relative to that directory. A trailing "/" only matches
+ * directories. An ignored directory is not walked at all.
+ * @author CuiYuxin
+ */
+class WorkTree {
+    /** The name of the files listing what to ignore. */
+    static final String IGNORE_FILE = ".gitletignore";
+    /** The most threads used to walk directories. */
+    private static final int THREADS = Checkout.THREADS;
+    /** The working directory. */
+    private static final Path ROOT = Repository.CWD.toPath().toAbsolutePath().normalize();
+    /** No rules. */
+    private static final List<Rule> NO_RULES = Collections.emptyList();
+
+    /** The files found by scans. Key: path */
+    private final Map<String, BasicFileAttributes> files = new ConcurrentHashMap<>();
+    /** The files looked up one by one. Key: path */
+    private final Map<String, BasicFileAttributes> looked = new ConcurrentHashMap<>();
+    /** The paths looked up that are not plain files. */
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+    /** The ignore rules of each directory read so far. Key: path, "" for
+     *  the working directory */
+    private final Map<String, List<Rule>> rules = new ConcurrentHashMap<>();
+
+    /** One line of a .gitletignore file. */
+    private static class Rule {
+        /** Matches the name or relative path of an entry. */
+        private final PathMatcher matcher;
+        /** Whether the glob is matched against the relative path. */
+        private final boolean anchored;
+        /** Whether only directories match. */
+        private final boolean dirOnly;
+
+        Rule(String line) {
+            dirOnly = line.endsWith("/");
+            String glob = dirOnly ? line.substring(0, line.length() - 1) : line;
+            anchored = glob.contains("/");
+            if (glob.startsWith("/")) {
+                glob = glob.substring(1);
+            }
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        }
+
+        /** Return whether the entry named NAME, whose path relative to the
+         *  directory of this rule is REL, matches; ISDIR says whether it is
+         *  a directory. */
+        boolean matches(String rel, String name, boolean isDir) {
+            return (isDir || !dirOnly) && matcher.matches(Paths.get(anchored ? rel : name));
+        }
+    }
+
+    /** Walks one directory, forking a task for each of its subdirectories. */
+    private static class Walk extends RecursiveAction {
+        /** Never serialized, as tasks are only run in this process. */
+        private static final long serialVersionUID = 1L;
+        /** The working tree the files found are added to. */
+        private final WorkTree work;
+        /** The directory. */
+        private final Path dir;
+        /** Its path, relative to the working directory. */
+        private final String rel;
+        /** The paths of the directories, from the top down, whose rules
+         *  apply to the entries of this one. */
+        private final List<String> ruleDirs;
+
+        Walk(WorkTree work, Path dir, String rel, List<String> ruleDirs) {
+            this.work = work;
+            this.dir = dir;
+            this.rel = rel;
+            this.ruleDirs = ruleDirs;
+        }
+
+        @Override
+        protected void compute() {
+            List<String> below = ruleDirs;
+            if (!work.rulesOf(rel).isEmpty()) {
+                below = new ArrayList<>(ruleDirs);
+                below.add(rel);
+            }
+            List<String> entryRules = below;
+            List<Walk> subdirs = new ArrayList<>();
+            try {
+                Files.walkFileTree(dir, EnumSet.noneOf(FileVisitOption.class), 1,
+                        new SimpleFileVisitor<>() {
+                            @Override
+                            public FileVisitResult visitFile(Path entry, BasicFileAttributes attrs) {
+                                String name = entry.getFileName().toString();
+                                String path = rel.isEmpty() ? name : rel + "/" + name;
+                                if (attrs.isSymbolicLink()) {
+                                    // Links to files are followed, links to directories are not.
+                                    try {
+                                        attrs = Files.readAttributes(entry, BasicFileAttributes.class);
+                                    } catch (IOException e) {
+                                        return FileVisitResult.CONTINUE;
+                                    }
+                                    if (!attrs.isRegularFile()) {
+                                        return FileVisitResult.CONTINUE;
+                                    }
+                                }
+                                boolean isDir = attrs.isDirectory();
+                                if (isDir && name.equals(".gitlet")
+                                        || work.ignored(entryRules, path, name, isDir)) {
+                                    return FileVisitResult.CONTINUE;
+                                }
+                                if (isDir) {
+                                    subdirs.add(new Walk(work, entry, path, entryRules));
+                                } else if (attrs.isRegularFile()) {
+                                    work.files.put(path, attrs);
+                                }
+                                return FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFileFailed(Path entry, IOException e) {
+                                return FileVisitResult.CONTINUE; // gone or unreadable: skipped
+                            }
+                        });
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e.getMessage());
+            }
+            invokeAll(subdirs);
+        }
+    }
+
+    /**
+     * Return the files under DIR, which must be in the working directory,
+     * found by walking it.
+     * @author CuiYuxin
+     */
+    static WorkTree scan(File dir) {
+        WorkTree work = new WorkTree();
+        String rel = relative(dir.getPath());
+        if (rel == null) {
+            throw Utils.error("%s is outside the working directory.", dir);
+        }
+        List<String> ruleDirs = new ArrayList<>();
+        if (!rel.isEmpty()) {
+            String[] parts = rel.split("/");
+            for (int i = 0; i < parts.length; i += 1) {
+                String parent = String.join("/", Arrays.asList(parts).subList(0, i));
+                if (!work.rulesOf(parent).isEmpty()) {
+                    ruleDirs.add(parent);
+                }
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(THREADS);
+        try {
+            pool.invoke(new Walk(work, ROOT.resolve(rel), rel, ruleDirs));
+        } finally {
+            pool.shutdown();
+        }
+        return work;
+    }
+
+    /**
+     * Return the path of the file named PATH relative to the working
+     * directory, with "/" between directories, or null if it is outside
+     * the working directory.
+     * @author CuiYuxin
+     */
+    static String relative(String path) {
+        Path rel = ROOT.relativize(ROOT.resolve(path).normalize());
+        if (rel.startsWith("..")) {
+            return null;
+        }
+        return rel.toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * Delete the working file PATH, if it is a plain file, and then any
+     * directories above it that this leaves empty.
+     * @author CuiYuxin
+     */
+    static void delete(String path) {
+        String rel = relative(path);
+        if (rel == null || rel.isEmpty() || rel.equals(".gitlet") || rel.startsWith(".gitlet/")) {
+            throw new IllegalArgumentException("not a working file: " + path);
+        }
+        File file = ROOT.resolve(rel).toFile();
+        if (file.isDirectory() || !file.delete()) {
+            return;
+        }
+        for (File dir = file.getParentFile(); !dir.toPath().equals(ROOT); dir = dir.getParentFile()) {
+            if (!dir.delete()) { // not empty
+                break;
+            }
+        }
+    }
+
+    /**
+     * Return the paths of the files found by scans, sorted.
+     * @author CuiYuxin
+     */
+    List<String> paths() {
+        String[] paths = files.keySet().toArray(new String[0]);
+        Arrays.sort(paths);
+        return Arrays.asList(paths);
+    }
+
+    /**
+     * Return the stat data of the plain file PATH, or null if there is no
+     * such file. Files not found by a scan are looked up directly.
+     * @author CuiYuxin
+     */
+    BasicFileAttributes attributes(String path) {
+        BasicFileAttributes attrs = files.get(path);
+        if (attrs == null) {
+            attrs = looked.get(path);
+        }
+        if (attrs != null || missing.contains(path)) {
+            return attrs;
+        }
+        try {
+            attrs = Files.readAttributes(ROOT.resolve(path), BasicFileAttributes.class);
+        } catch (IOException e) {
+            attrs = null;
+        }
+        if (attrs == null || !attrs.isRegularFile()) {
+            missing.add(path);
+            return null;
+        }
+        looked.put(path, attrs);
+        return attrs;
+    }
+
+    /**
+     * Return whether the plain file PATH exists.
+     * @author CuiYuxin
+     */
+    boolean contains(String path) {
+        return attributes(path) != null;
+    }
+
+    /**
+     * Return the blob ID of the contents of the plain file PATH, using the
+     * Index and the stat data already found.
+     * @author CuiYuxin
+     */
+    String hash(String path) {
+        BasicFileAttributes attrs = attributes(path);
+        if (attrs == null) {
+            throw new IllegalArgumentException("no such file: " + path);
+        }
+        return Index.get().hash(new File(path), attrs);
+    }
+
+    /**
+     * Return whether the rules of the .gitletignore files ignore PATH or
+     * one of the directories above it.
+     * @author CuiYuxin
+     */
+    boolean ignored(String path) {
+        String[] parts = path.split("/");
+        List<String> ruleDirs = new ArrayList<>();
+        String dir = "";
+        for (int i = 0; i < parts.length; i += 1) {
+            if (!rulesOf(dir).isEmpty()) {
+                ruleDirs.add(dir);
+            }
+            String entry = dir.isEmpty() ? parts[i] : dir + "/" + parts[i];
+            boolean isDir = i < parts.length - 1 || Files.isDirectory(ROOT.resolve(entry),
+                    LinkOption.NOFOLLOW_LINKS);
+            if (ignored(ruleDirs, entry, parts[i], isDir)) {
+                return true;
+            }
+            dir = entry;
+        }
+        return false;
+    }
+
+    /** Return whether the rules of the directories RULEDIRS ignore the
+     *  entry at PATH named NAME; ISDIR says whether it is a directory. */
+    private boolean ignored(List<String> ruleDirs, String path, String name, boolean isDir) {
+        for (String dir : ruleDirs) {
+            String rel = dir.isEmpty() ? path : path.substring(dir.length() + 1);
+            for (Rule rule : rulesOf(dir)) {
+                if (rule.matches(rel, name, isDir)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Return the rules of the .gitletignore file of directory DIR. */
+    private List<Rule> rulesOf(String dir) {
+        return rules.computeIfAbsent(dir, d -> {
+            File file = ROOT.resolve(d).resolve(IGNORE_FILE).toFile();
+            if (!file.isFile()) {
+                return NO_RULES;
+            }
+            List<Rule> read = new ArrayList<>();
+            for (String line : Utils.readContentsAsString(file).split("\r?\n")) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    read.add(new Rule(line));
+                }
+            }
+            return read;
+        });
+    }
+}